@@ -24,7 +24,9 @@ package com.dfbnc;
 
 import com.dmdirc.util.io.InvalidConfigFileException;
 
-import com.dfbnc.authentication.AuthProviderManager;
+import com.dfbnc.authentication.AuthListIndex;
+import com.dfbnc.authentication.PasswordHasher;
+import com.dfbnc.authentication.PasswordHasherManager;
 import com.dfbnc.commands.CommandManager;
 import com.dfbnc.config.Config;
 import com.dfbnc.config.ConfigChangeListener;
@@ -47,9 +49,10 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import uk.org.dataforce.libs.logger.Logger;
@@ -81,8 +84,12 @@ public final class Account implements UserSocketWatcher,ConfigChangeListener {
     private final Map<Config,String> subClientConfigKeys = new HashMap<>();
     /** Configuration change listeners. */
     private final Map<String, List<AccountConfigChangeListener>> listeners = new HashMap<>();
-    /** Reconnect Timer. */
-    private Timer reconnectTimer;
+    /** Parsed authlists, by the config they came from. */
+    private final Map<Config, AuthListIndex> authListIndexes = new ConcurrentHashMap<>();
+    /** Lock held while changing passwords. */
+    private final Object passwordLock = new Object();
+    /** Pending reconnect attempt. */
+    private ScheduledFuture<?> reconnectTask;
     /** Is the next disconnect intentional? */
     private boolean disconnectWanted;
 
@@ -105,9 +112,7 @@ public final class Account implements UserSocketWatcher,ConfigChangeListener {
             }
         }
         // Load Main Config
-        config = new DefaultsConfig(
-                new ConfigFileConfig(new File(confDir, username + ".conf")),
-                new ConfigFileConfig(DFBnc.class.getResourceAsStream("/com/dfbnc/defaults.config")));
+        config = new DefaultsConfig(new ConfigFileConfig(new File(confDir, username + ".conf")), DFBnc.getDefaultsConfig());
         config.addChangeListener(this);
 
         // Find sub-client configs
@@ -172,6 +177,7 @@ public final class Account implements UserSocketWatcher,ConfigChangeListener {
     @Override
     public void userConnected(final UserSocket user) {
         myUserSockets.add(user);
+        DFBnc.getAccountManager().updateIndexes(this);
         if (myConnectionHandler != null && myConnectionHandler instanceof UserSocketWatcher) {
             Logger.debug2("Handle userConnected: "+myConnectionHandler+" -> "+user);
             ((UserSocketWatcher) myConnectionHandler).userConnected(user);
@@ -180,35 +186,31 @@ public final class Account implements UserSocketWatcher,ConfigChangeListener {
             user.setSyncCompleted();
         }
 
-        new Timer().schedule(new TimerTask() {
+        DFBnc.getScheduler().schedule(() -> {
+            synchronized (user) {
+                if (user.getSocketAnnouncement()) { return; }
+                user.setSocketAnnouncement(true);
+                final StringBuilder sb = new StringBuilder("Another client has connected (");
+                sb.append(user.getIP());
 
-            @Override
-            public void run() {
-                synchronized (user) {
-                    if (user.getSocketAnnouncement()) { return; }
-                    user.setSocketAnnouncement(true);
-                    final StringBuilder sb = new StringBuilder("Another client has connected (");
-                    sb.append(user.getIP());
-
-                    if (user.getClientID() != null) {
-                        sb.append(" [");
-                        sb.append(user.getClientID());
-                        sb.append("]");
-                    }
-                    if (user.getClientVersion() != null) {
-                        sb.append(" - \"");
-                        sb.append(user.getClientVersion());
-                        sb.append("\"");
-                    }
+                if (user.getClientID() != null) {
+                    sb.append(" [");
+                    sb.append(user.getClientID());
+                    sb.append("]");
+                }
+                if (user.getClientVersion() != null) {
+                    sb.append(" - \"");
+                    sb.append(user.getClientVersion());
+                    sb.append("\"");
+                }
 
-                    sb.append(")");
+                sb.append(")");
 
-                    myUserSockets.stream()
-                            .filter(socket -> user != socket)
-                            .forEach(socket -> socket.sendBotMessage("%s", sb.toString()));
-                }
+                myUserSockets.stream()
+                        .filter(socket -> user != socket)
+                        .forEach(socket -> socket.sendBotMessage("%s", sb.toString()));
             }
-        }, 1000);
+        }, 1, TimeUnit.SECONDS);
     }
 
     /**
@@ -220,6 +222,7 @@ public final class Account implements UserSocketWatcher,ConfigChangeListener {
     @Override
     public void userDisconnected(final UserSocket user) {
         myUserSockets.remove(user);
+        DFBnc.getAccountManager().updateIndexes(this);
         if (myConnectionHandler != null && myConnectionHandler instanceof UserSocketWatcher) {
             ((UserSocketWatcher) myConnectionHandler).userDisconnected(user);
         }
@@ -380,33 +383,48 @@ public final class Account implements UserSocketWatcher,ConfigChangeListener {
      * Check if a password matches this account password. If no subclient
      * password is defined, fallback to the main account password.
      *
+     * This can be slow, as passwords are deliberately expensive to hash, so
+     * should not be called from socket threads.
+     *
      * @param subclient Subclient to check, null for none.
      * @param password Password to check
      * @return true/false depending on successful match
      */
     private boolean checkPassword(final String subclient, final String password) {
-        final StringBuilder hashedPassword = new StringBuilder(myName.toLowerCase());
-
-        // If the subclient doesn't exist, then use the default config so
-        // that we don't create random subclient files...
-        final Config checkConfig = (subclient != null && hasSubClient(subclient)) ? getConfig(subclient) : getConfig(null);
-
-        hashedPassword.append(password);
-        // Append per-client salt if set, else use the old default salt.
-        hashedPassword.append(checkConfig.hasOption("user", "salt") ? checkConfig.getOption("user", "salt") : "a5S5l1N4u4O2y9Z4l6W7t1A9b9L8a1X5a7F4s5E8");
+        if (password == null) {
+            return false;
+        }
 
         if (checkOldSubClientPassword(subclient, password)) {
             Logger.info("Migrating old subclient password: " + getName() + "+" + subclient);
             config.unsetOption("user", "password." + subclient.toLowerCase());
-            getConfig(subclient).setOption("user", "password", Util.md5(hashedPassword.toString()));
+            setPassword(subclient, password);
+            return true;
         }
 
-        final boolean result = Util.md5(hashedPassword.toString()).equals(checkConfig.getOption("user", "password"));
+        // If the subclient doesn't exist, then use the default config so
+        // that we don't create random subclient files...
+        final Config checkConfig = (subclient != null && hasSubClient(subclient)) ? getConfig(subclient) : getConfig(null);
+        final String stored = checkConfig.getOption("user", "password");
+        final PasswordHasherManager hashers = DFBnc.getPasswordHasherManager();
+        final PasswordHasher hasher = hashers.getHasherFor(stored);
+
+        final boolean result;
+        if (hasher == null) {
+            // Old salted md5 password, using the per-client salt if set,
+            // else the old default salt.
+            final StringBuilder hashedPassword = new StringBuilder(myName.toLowerCase());
+            hashedPassword.append(password);
+            hashedPassword.append(checkConfig.hasOption("user", "salt") ? checkConfig.getOption("user", "salt") : "a5S5l1N4u4O2y9Z4l6W7t1A9b9L8a1X5a7F4s5E8");
+            result = Util.md5(hashedPassword.toString()).equals(stored);
+        } else {
+            result = hasher.verify(password, stored);
+        }
 
-        // Resalt if using the old default salt.
-        if (result && !checkConfig.hasOption("user", "salt")) {
-            Logger.info("Re-salting password: " + getName() + "+" + subclient);
-            setPassword(subclient, password);
+        // Rehash if using an old hasher, or weaker settings than we now use.
+        if (result && hashers.needsRehash(stored)) {
+            Logger.info("Re-hashing password: " + getName() + "+" + subclient);
+            storePassword(checkConfig, password, stored);
         }
 
         return result;
@@ -451,14 +469,46 @@ public final class Account implements UserSocketWatcher,ConfigChangeListener {
      * @param password New password
      */
     public void setPassword(final String subclient, final String password) {
-        final StringBuilder hashedPassword = new StringBuilder(myName.toLowerCase());
-        final String newSalt = DFBnc.getAccountManager().makePassword(40, "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789");
-        hashedPassword.append(password);
-        hashedPassword.append(newSalt);
+        storePassword(getConfig(subclient), password);
+    }
+
+    /**
+     * Hash a password with the default hasher and save it in the given config.
+     *
+     * @param target Config to store the password in
+     * @param password New password
+     */
+    private void storePassword(final Config target, final String password) {
+        storePassword(target, password, null);
+    }
+
+    /**
+     * Hash a password with the default hasher and save it in the given config.
+     *
+     * Password checks (and so re-hashing) happen on the password verifier
+     * threads, so this is synchronised with any other password changes. If
+     * an expected hash is given, the password is only stored if that is still
+     * the current hash, so a re-hash can't undo a password change that
+     * happened while the password was being checked.
+     *
+     * @param target Config to store the password in
+     * @param password New password
+     * @param expected Hash that must still be stored, or null to always store
+     */
+    private void storePassword(final Config target, final String password, final String expected) {
+        // Hashing is slow, so don't hold the lock while doing it.
+        final String hash = DFBnc.getPasswordHasherManager().getDefaultHasher().hash(password);
 
-        getConfig(subclient).setOption("user", "password", Util.md5(hashedPassword.toString()));
-        getConfig(subclient).setOption("user", "salt", newSalt);
-        getConfig(subclient).save();
+        synchronized (passwordLock) {
+            if (expected != null && !expected.equals(target.findOption("user", "password"))) {
+                Logger.info("Not re-hashing password for " + getName() + ", it has been changed.");
+                return;
+            }
+            target.setOption("user", "password", hash);
+            // The salt is part of the hash, this is only used by old md5 hashes.
+            target.unsetOption("user", "salt");
+        }
+        target.save();
     }
 
     /**
@@ -755,6 +805,15 @@ public final class Account implements UserSocketWatcher,ConfigChangeListener {
     public void configChanged(final Config config, final String domain, final String option) {
         final String subClientName = (config == this.config) ? null : subClientConfigKeys.get(config);
 
+        if ("user".equals(domain) && "authlist".equals(option)) {
+            // Sub-clients may inherit the main authlist, so throw them all away.
+            authListIndexes.clear();
+        }
+
+        if (config == this.config && "user".equals(domain) && "admin".equals(option)) {
+            DFBnc.getAccountManager().updateIndexes(this);
+        }
+
         if (listeners.containsKey(domain)) {
             listeners.get(domain).forEach(listener -> listener.accountConfigChanged(this, subClientName, domain, option));
         }
@@ -769,19 +828,19 @@ public final class Account implements UserSocketWatcher,ConfigChangeListener {
     /**
      * Are we currently trying to reconnect?
      *
-     * @return True if there is a reconnectTimer around
+     * @return True if there is a reconnect attempt pending
      */
     public boolean isReconnecting() {
-        return reconnectTimer != null;
+        return reconnectTask != null;
     }
 
     /**
      * Cancel any ongoing reconnection attempts.
      */
     public void cancelReconnect() {
-        if (reconnectTimer != null) {
-            reconnectTimer.cancel();
-            reconnectTimer = null;
+        if (reconnectTask != null) {
+            reconnectTask.cancel(false);
+            reconnectTask = null;
         }
     }
 
@@ -803,34 +862,29 @@ public final class Account implements UserSocketWatcher,ConfigChangeListener {
 
         myConnectionHandler = null;
         if (!disconnectWanted && config.getOptionBool("server", "reconnect")) {
-            reconnectTimer = new Timer("Reconnect Timer - " + getName());
-
-            reconnectTimer.schedule(new TimerTask(){
-                @Override
-                public void run() {
-                    try {
-                        sendBotMessage("Attempting reconnect...");
-                        if (oldHandler == null) {
-                            sendBotMessage("Reconnect failed. No handler to reconnect.");
-                            myConnectionHandler = null;
-                        } else {
-                            final ConnectionHandler newHandler = oldHandler.newInstance();
-                            setConnectionHandler(newHandler);
-                        }
-                    } catch (final UnableToConnectException ex) {
-                        sendBotMessage("Unable to reconnect: %s", ex.getMessage());
+            reconnectTask = DFBnc.getScheduler().schedule(() -> {
+                try {
+                    sendBotMessage("Attempting reconnect...");
+                    if (oldHandler == null) {
+                        sendBotMessage("Reconnect failed. No handler to reconnect.");
                         myConnectionHandler = null;
-                        // This is not the place to try again, this exception
-                        // happens if the params we have are not valid for
-                        // creating a connection.
-                        // Errors actually trying to make the connection will
-                        // result in a handlerDisconnected() call.
-                    } catch (final Throwable t) {
-                        reportException(t, "Unhandled Exception");
+                    } else {
+                        final ConnectionHandler newHandler = oldHandler.newInstance();
+                        setConnectionHandler(newHandler);
                     }
-                    cancelReconnect();
+                } catch (final UnableToConnectException ex) {
+                    sendBotMessage("Unable to reconnect: %s", ex.getMessage());
+                    myConnectionHandler = null;
+                    // This is not the place to try again, this exception
+                    // happens if the params we have are not valid for
+                    // creating a connection.
+                    // Errors actually trying to make the connection will
+                    // result in a handlerDisconnected() call.
+                } catch (final Throwable t) {
+                    reportException(t, "Unhandled Exception");
                 }
-            }, 5000);
+                cancelReconnect();
+            }, 5, TimeUnit.SECONDS);
         }
 
         if (config.getOptionBool("server", "userdisconnect")) {
@@ -911,25 +965,19 @@ public final class Account implements UserSocketWatcher,ConfigChangeListener {
      * @return True if the socket is authenticated by an authlist entry, false otherwise.
      */
     public boolean isAuthenticated(final UserSocket usersocket, final String subclient, final boolean announce) {
-        final AuthProviderManager authProviderManager = DFBnc.getAuthProviderManager();
         final Config checkConfig = (subclient != null && hasSubClient(subclient)) ? getConfig(subclient) : getConfig(null);
+        final AuthListIndex authList = authListIndexes.computeIfAbsent(checkConfig,
+                c -> new AuthListIndex(c.getOptionList("user", "authlist"), DFBnc.getAuthProviderManager()));
 
-        int i = 0;
-        for (final String entry : checkConfig.getOptionList("user", "authlist")) {
-            final String[] bits = entry.split(" ", 2);
-            if (bits.length > 1 && authProviderManager.hasProvider(bits[0])) {
-                if (authProviderManager.getProvider(bits[0]).checkAuthentication(usersocket, bits[1])) {
-                    if (announce) {
-                        usersocket.sendBotMessage("Authenticated using %s (authlist entry #%d)", bits[0], i);
-                    }
-                    return true;
-                }
-            }
-
-            i++;
+        final int entry = authList.check(usersocket);
+        if (entry < 0) {
+            return false;
         }
 
-        return false;
+        if (announce) {
+            usersocket.sendBotMessage("Authenticated using %s (authlist entry #%d)", authList.getProviderName(entry), entry);
+        }
+        return true;
     }
 
     /**
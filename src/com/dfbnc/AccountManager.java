@@ -22,6 +22,7 @@
 
 package com.dfbnc;
 
+import com.dfbnc.config.Config;
 import com.dfbnc.servers.ServerType;
 import com.dfbnc.sockets.UnableToConnectException;
 import com.dmdirc.util.io.InvalidConfigFileException;
@@ -33,29 +34,93 @@ import java.io.IOException;
 import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Manages the list of accounts.
  */
 public class AccountManager {
 
-    /** List of loaded Accounts */
-    private final Map<String, Account> accounts = new HashMap<>();
+    /** Loaded accounts, by normalised name. */
+    private final Map<String, Account> accounts = new ConcurrentHashMap<>();
+
+    /**
+     * All loaded accounts, sorted by name. This is never modified, it is
+     * replaced whenever an account is added or removed.
+     */
+    private volatile List<Account> snapshot = Collections.emptyList();
+
+    /** Loaded accounts that are admins. */
+    private final Set<Account> admins = ConcurrentHashMap.newKeySet();
+
+    /** Loaded accounts that have at least one user connected. */
+    private final Set<Account> connected = ConcurrentHashMap.newKeySet();
+
+    /** Lock held while adding or removing accounts. */
+    private final Object accountsLock = new Object();
+
+    /** Lock held while updating the admin and connected indexes. */
+    private final Object indexLock = new Object();
 
     /** Prevent public instantiation of AccountManager. Use {@link DFBnc#getAccountManager()}. */
     AccountManager() {
     }
 
     /**
-     * Gets a collection of known accounts.
+     * Get the name an account is stored under.
+     *
+     * @param username Username to normalise
+     * @return Normalised username.
+     */
+    private static String normaliseName(final String username) {
+        return username.replace('.', '_').toLowerCase();
+    }
+
+    /**
+     * Gets a collection of known accounts, sorted by name.
+     *
+     * The collection can't be modified, and doesn't change if accounts are
+     * added or removed later.
      *
      * @return Returns a collection of accounts
      */
     public Collection<Account> getAccounts() {
-        return new ArrayList<>(accounts.values());
+        return snapshot;
+    }
+
+    /**
+     * Gets the known accounts that are admins.
+     *
+     * The collection can't be modified, but does change as accounts change.
+     *
+     * @return Returns a collection of admin accounts
+     */
+    public Collection<Account> getAdmins() {
+        return Collections.unmodifiableSet(admins);
+    }
+
+    /**
+     * Gets the known accounts that have at least one user connected.
+     *
+     * The collection can't be modified, but does change as users connect and
+     * disconnect.
+     *
+     * @return Returns a collection of connected accounts
+     */
+    public Collection<Account> getConnectedAccounts() {
+        return Collections.unmodifiableSet(connected);
     }
 
     /**
@@ -74,13 +139,13 @@ public class AccountManager {
      * @return true/false depending on if the account exists or not
      */
     public boolean exists(final String username) {
-        Logger.debug2("exists: Checking if user exists: " + username.replace('.', '_').toLowerCase());
+        Logger.debug2("exists: Checking if user exists: " + normaliseName(username));
         if (LogLevel.DEBUG3.isLoggable(Logger.getLevel())) {
             for (String a : accounts.keySet()) {
                 Logger.debug3("exists: Found acc: " + a);
             }
         }
-        return accounts.containsKey(username.replace('.', '_').toLowerCase());
+        return accounts.containsKey(normaliseName(username));
     }
 
     /**
@@ -90,7 +155,7 @@ public class AccountManager {
      * @return Account object for given username, or null if it doesn't exist
      */
     public Account get(final String username) {
-        return accounts.get(username.replace('.', '_').toLowerCase());
+        return accounts.get(normaliseName(username));
     }
 
     /**
@@ -100,8 +165,13 @@ public class AccountManager {
      * @return Account object that was removed, or null if nothing was removed.
      */
     public Account remove(final String username) {
-        synchronized (accounts) {
-            return accounts.remove(username.replace('.', '_').toLowerCase());
+        synchronized (accountsLock) {
+            final Account acc = accounts.remove(normaliseName(username));
+            if (acc != null) {
+                updateSnapshot();
+                updateIndexes(acc);
+            }
+            return acc;
         }
     }
 
@@ -115,9 +185,9 @@ public class AccountManager {
      * @return The account created, or null if the account could not be created
      */
     public Account createAccount(final String username, final String password) {
-        final String accountName = username.replace('.', '_').toLowerCase();
-        Logger.debug2("createAccount: Saving user as: " + username.replace('.', '_').toLowerCase());
-        synchronized (accounts) {
+        final String accountName = normaliseName(username);
+        Logger.debug2("createAccount: Saving user as: " + accountName);
+        synchronized (accountsLock) {
             Account acc = null;
             if (!exists(accountName)) {
                 Logger.debug2("Creating new account: "+accountName);
@@ -130,12 +200,49 @@ public class AccountManager {
                     Logger.debug2("Account created.");
                     acc.setPassword(password);
                     accounts.put(accountName, acc);
+                    updateSnapshot();
+                    updateIndexes(acc);
                 }
             }
             return acc;
         }
     }
 
+    /**
+     * Replace the snapshot of all accounts. Should only be called while
+     * holding accountsLock.
+     */
+    private void updateSnapshot() {
+        final List<Account> result = new ArrayList<>(accounts.values());
+        result.sort(Comparator.comparing(Account::getName));
+        snapshot = Collections.unmodifiableList(result);
+    }
+
+    /**
+     * Update the admin and connected indexes for an account. This should be
+     * called whenever the account's admin setting changes, or a user connects
+     * or disconnects.
+     *
+     * @param acc Account that has changed
+     */
+    void updateIndexes(final Account acc) {
+        synchronized (indexLock) {
+            final boolean known = accounts.get(normaliseName(acc.getName())) == acc;
+
+            if (known && acc.isAdmin()) {
+                admins.add(acc);
+            } else {
+                admins.remove(acc);
+            }
+
+            if (known && !acc.getUserSockets().isEmpty()) {
+                connected.add(acc);
+            } else {
+                connected.remove(acc);
+            }
+        }
+    }
+
     /**
      * Create a random password 8 characters in length.
      *
@@ -173,34 +280,143 @@ public class AccountManager {
     }
 
     /**
-     * Load all the accounts from the config
+     * Load all the accounts from the config.
+     *
+     * Accounts are loaded in parallel on a small pool of threads. Once they
+     * have all loaded, accounts that should autoconnect are connected a few at
+     * a time, so that we don't open every connection at once.
      */
     public void loadAccounts() {
+        final Config config = DFBnc.getBNC().getConfig();
+        final long startTime = System.nanoTime();
+
         final File directory = new File(DFBnc.getConfigDirName());
         final File[] directories = directory.listFiles();
         if (directories == null) {
             return;
         }
+
+        final AtomicInteger threadCount = new AtomicInteger();
+        final ExecutorService loader = Executors.newFixedThreadPool(Math.max(1, config.getOptionInt("general", "loadthreads")), r -> {
+            final Thread thread = new Thread(r, "Account Loader - " + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        final List<Future<Account>> loading = new ArrayList<>();
         for (File file : directories) {
-            if (!DFBnc.getConfigFileName().equals(file.getName())) {
+            if (file.isDirectory() && !DFBnc.getConfigFileName().equals(file.getName())) {
+                loading.add(loader.submit(() -> loadAccount(file.getName())));
+            }
+        }
+        loader.shutdown();
+
+        final List<Account> autoconnect = new ArrayList<>();
+        for (Future<Account> future : loading) {
+            final Account acc;
+            try {
+                acc = future.get();
+            } catch (final InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (final ExecutionException ex) {
+                Logger.error("Unable to load account: " + ex.getCause());
+                continue;
+            }
+
+            if (acc != null) {
+                synchronized (accountsLock) {
+                    accounts.put(normaliseName(acc.getName()), acc);
+                }
+                updateIndexes(acc);
+                if (acc.getAccountConfig().getOptionBool("server", "autoconnect")) {
+                    autoconnect.add(acc);
+                }
+            }
+        }
+
+        synchronized (accountsLock) {
+            updateSnapshot();
+        }
+
+        final long loadTime = System.nanoTime();
+        Logger.info(String.format("Loaded %d accounts in %dms", count(), TimeUnit.NANOSECONDS.toMillis(loadTime - startTime)));
+
+        scheduleAutoconnects(autoconnect, config.getOptionInt("general", "autoconnectconcurrency"), config.getOptionInt("general", "autoconnectjitter"));
+    }
+
+    /**
+     * Load a single account.
+     *
+     * @param name Name of the account to load
+     * @return The loaded account, or null if it could not be loaded.
+     */
+    private Account loadAccount(final String name) {
+        try {
+            return new Account(name);
+        } catch (IOException | InvalidConfigFileException ex) {
+            Logger.error("Unable to load account: " + name + "(" + ex.getMessage() + ")");
+            return null;
+        }
+    }
+
+    /**
+     * Connect the given accounts, a few at a time.
+     *
+     * Each second, up to {@code concurrency} accounts are connected. Each
+     * connection is also delayed by a random amount of up to {@code jitter}
+     * milliseconds, so that they don't all start at exactly the same time.
+     *
+     * @param autoconnect Accounts to connect
+     * @param concurrency Number of accounts to connect each second
+     * @param jitter Maximum random delay (in ms) to add to each connection
+     */
+    private void scheduleAutoconnects(final List<Account> autoconnect, final int concurrency, final int jitter) {
+        if (autoconnect.isEmpty()) {
+            return;
+        }
+
+        final long startTime = System.nanoTime();
+        final AtomicInteger remaining = new AtomicInteger(autoconnect.size());
+        final Random random = new Random();
+        final int perSecond = Math.max(1, concurrency);
+
+        for (int i = 0; i < autoconnect.size(); i++) {
+            final Account acc = autoconnect.get(i);
+            final long delay = (i / perSecond) * 1000L + (jitter > 0 ? random.nextInt(jitter) : 0);
+
+            DFBnc.getScheduler().schedule(() -> {
                 try {
-                   Account acc = new Account(file.getName());
-                   accounts.put(acc.getName(), acc);
-
-                    if (acc.getAccountConfig().getOptionBool("server", "autoconnect")) {
-                       final ServerType type = acc.getServerType();
-                       if (type != null) {
-                           try {
-                              final ConnectionHandler handler = type.newConnectionHandler(acc, -1);
-                              acc.setConnectionHandler(handler);
-                           }  catch (UnableToConnectException ex) {
-                               Logger.error("Unable to autoconnect account: " + file.getName());
-                           }
-                       }
-                   }
-               } catch (IOException | InvalidConfigFileException ex) {
-                   Logger.error("Unable to load account: " + file.getName() + "(" + ex.getMessage() + ")");
-               }
+                    autoconnect(acc);
+                } finally {
+                    if (remaining.decrementAndGet() == 0) {
+                        Logger.info(String.format("Started %d autoconnects in %dms", autoconnect.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime)));
+                    }
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+
+        Logger.info(String.format("Scheduled %d autoconnects, %d per second", autoconnect.size(), perSecond));
+    }
+
+    /**
+     * Connect an account that should autoconnect.
+     *
+     * @param acc Account to connect
+     */
+    private void autoconnect(final Account acc) {
+        if (acc.getConnectionHandler() != null || !exists(acc.getName())) {
+            // Already connected, or deleted since we loaded it.
+            return;
+        }
+
+        final ServerType type = acc.getServerType();
+        if (type != null) {
+            try {
+                final ConnectionHandler handler = type.newConnectionHandler(acc, -1);
+                acc.setConnectionHandler(handler);
+            } catch (UnableToConnectException ex) {
+                Logger.error("Unable to autoconnect account: " + acc.getName());
             }
         }
     }
@@ -209,7 +425,7 @@ public class AccountManager {
      * Save all the accounts to the config
      */
     public void saveAccounts() {
-        for (Account acc : accounts.values()) {
+        for (Account acc : snapshot) {
             Logger.debug("Saving account: " + acc.getName());
             acc.save();
         }
@@ -219,7 +435,7 @@ public class AccountManager {
      * Shutdown all accounts.
      */
     public void shutdown() {
-        for (Account acc : accounts.values()) {
+        for (Account acc : snapshot) {
             ServerType st = acc.getServerType();
             if (st != null) {
                 st.close(acc, "BNC Shutting Down");
@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2006-2017 DFBnc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.dfbnc;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import uk.org.dataforce.libs.logger.Logger;
+
+/**
+ * Runs bot commands on a small, shared pool of threads, so that a slow command
+ * does not hold up the thread that services the client sockets.
+ *
+ * Commands from each client are run through an Executor returned by
+ * {@link #getQueue()}, which runs them one at a time in the order they were
+ * submitted. Commands from different clients can run at the same time.
+ *
+ * Only commands that report information are run here, as account and
+ * connection state are not thread-safe (see
+ * {@link com.dfbnc.commands.Command#allowBackground()}).
+ */
+public class CommandExecutor {
+
+    /** Executor that runs the commands. */
+    private final ThreadPoolExecutor executor;
+
+    /** Number of commands that have been run. */
+    private final AtomicLong commandsRun = new AtomicLong();
+
+    /** Number of commands that have thrown an exception. */
+    private final AtomicLong commandsFailed = new AtomicLong();
+
+    /**
+     * Create a new CommandExecutor.
+     *
+     * @param threads Maximum number of commands to run at the same time.
+     */
+    public CommandExecutor(final int threads) {
+        final AtomicInteger threadCount = new AtomicInteger();
+        final int size = Math.max(1, threads);
+        executor = new ThreadPoolExecutor(size, size, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+            final Thread thread = new Thread(r, "Command - " + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Get a new queue that runs commands in order, one at a time.
+     *
+     * @return Executor that runs commands in order
+     */
+    public Executor getQueue() {
+        return new CommandQueue();
+    }
+
+    /**
+     * Stop running commands. Commands that are already running are allowed to
+     * finish.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Get the number of threads currently running commands.
+     *
+     * @return Number of busy threads.
+     */
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    /**
+     * Get the number of clients waiting for a thread to run their commands.
+     *
+     * @return Number of waiting clients.
+     */
+    public int getQueuedCount() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * Get the number of commands that have been run.
+     *
+     * @return Number of commands run.
+     */
+    public long getCommandsRun() {
+        return commandsRun.get();
+    }
+
+    /**
+     * Get the number of commands that have thrown an exception.
+     *
+     * @return Number of commands failed.
+     */
+    public long getCommandsFailed() {
+        return commandsFailed.get();
+    }
+
+    /**
+     * Runs commands in the order they were submitted, one at a time.
+     *
+     * At most one task per queue is ever waiting in the shared executor. It
+     * runs the next command, then goes to the back of the executor's queue if
+     * there are more, so a client with many commands can't starve the others.
+     */
+    private class CommandQueue implements Executor, Runnable {
+        /** Commands waiting to be run. */
+        private final Queue<Runnable> commands = new ArrayDeque<>();
+        /** Is this queue currently waiting in, or running on, the executor? */
+        private boolean scheduled;
+
+        @Override
+        public void execute(final Runnable command) {
+            synchronized (commands) {
+                commands.add(command);
+                if (scheduled) {
+                    return;
+                }
+                scheduled = true;
+            }
+            try {
+                executor.execute(this);
+            } catch (final RuntimeException e) {
+                synchronized (commands) {
+                    commands.clear();
+                    scheduled = false;
+                }
+                throw e;
+            }
+        }
+
+        @Override
+        public void run() {
+            final Runnable command;
+            synchronized (commands) {
+                command = commands.poll();
+            }
+
+            commandsRun.incrementAndGet();
+            try {
+                command.run();
+            } catch (final Throwable t) {
+                commandsFailed.incrementAndGet();
+                Logger.error("Exception running command " + command + ": " + t);
+            }
+
+            synchronized (commands) {
+                if (commands.isEmpty()) {
+                    scheduled = false;
+                    return;
+                }
+            }
+            try {
+                executor.execute(this);
+            } catch (final RuntimeException e) {
+                // Shutting down, nothing else will be run.
+                synchronized (commands) {
+                    commands.clear();
+                    scheduled = false;
+                }
+            }
+        }
+    }
+}
@@ -23,8 +23,7 @@ package com.dfbnc;
 
 import com.dfbnc.servers.logging.ServerLogger;
 import com.dfbnc.sockets.DebugFlag;
-import com.dfbnc.util.BackbufferMessage;
-import com.dfbnc.util.RollingList;
+import com.dfbnc.util.Backbuffer;
 import com.dfbnc.sockets.UnableToConnectException;
 
 import com.dmdirc.parser.interfaces.Parser;
@@ -88,12 +87,12 @@ public interface ConnectionHandler {
 
 
     /**
-     * Get the backbuffer rolling list for the given channel name.
+     * Get the backbuffer for the given channel name.
      *
      * @param channel Channel name
      * @return Backbuffer list.
      */
-    RollingList<BackbufferMessage> getBackbufferList(final String channel);
+    Backbuffer getBackbufferList(final String channel);
 
     /**
      * Called to make the BNC fake lines to the client on disconnect.
@@ -22,15 +22,21 @@
 package com.dfbnc;
 
 import com.dfbnc.authentication.AuthProviderManager;
+import com.dfbnc.authentication.PasswordHasherManager;
+import com.dfbnc.authentication.PasswordVerifier;
+import com.dfbnc.authentication.hashers.*;
 import com.dfbnc.authentication.providers.*;
 import com.dfbnc.commands.CommandManager;
 import com.dfbnc.commands.admin.*;
 import com.dfbnc.commands.user.*;
 import com.dfbnc.config.Config;
 import com.dfbnc.config.ConfigFileConfig;
+import com.dfbnc.config.ConfigWriter;
 import com.dfbnc.config.DefaultsConfig;
 import com.dfbnc.config.ReadOnlyConfig;
 import com.dfbnc.servers.ServerTypeManager;
+import com.dfbnc.servers.logging.LogRotator;
+import com.dfbnc.servers.logging.LogWriter;
 import com.dfbnc.sockets.NewSocketReadyHandler;
 import com.dfbnc.sockets.ListenSocket;
 import com.dfbnc.sockets.UserSocket;
@@ -59,8 +65,7 @@ import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.TimeUnit;
 
 import java.nio.file.Path;
 import java.nio.file.FileSystems;
@@ -99,6 +104,27 @@ public class DFBnc implements NewSocketReadyHandler {
     /** The provider manager for this bnc */
     private static AuthProviderManager authProviderManager = new AuthProviderManager();
 
+    /** The password hasher manager for this bnc */
+    private static PasswordHasherManager passwordHasherManager = new PasswordHasherManager();
+
+    /** The verifier used to check passwords. */
+    private static PasswordVerifier passwordVerifier;
+
+    /** The writer used for server-side logging. */
+    private static LogWriter logWriter;
+
+    /** The rotator used for server-side logs. */
+    private static LogRotator logRotator;
+
+    /** The scheduler used for delayed and periodic tasks. */
+    private static Scheduler scheduler;
+
+    /** The writer used to save configs. */
+    private static ConfigWriter configWriter;
+
+    /** The executor used to run bot commands. */
+    private static CommandExecutor commandExecutor;
+
     /** The arraylist of listenSockets */
     private static ArrayList<ListenSocket> listenSockets = new ArrayList<>();
 
@@ -108,6 +134,9 @@ public class DFBnc implements NewSocketReadyHandler {
     /** Global config. */
     private Config config;
 
+    /** Bundled defaults, shared by the global config and all accounts. */
+    private static Config defaultsConfig;
+
     /** Shutdown hook. */
     private ShutdownHook shutdownHook;
 
@@ -262,7 +291,8 @@ public class DFBnc implements NewSocketReadyHandler {
                     throw new IOException("Unable to create config directory.");
                 }
             }
-            config = new DefaultsConfig(new ConfigFileConfig(new File(getConfigDirName(), getConfigFileName())), new ConfigFileConfig(DFBnc.class.getResourceAsStream("/com/dfbnc/defaults.config")));
+            defaultsConfig = new ReadOnlyConfig(new ConfigFileConfig(DFBnc.class.getResourceAsStream("/com/dfbnc/defaults.config")));
+            config = new DefaultsConfig(new ConfigFileConfig(new File(getConfigDirName(), getConfigFileName())), defaultsConfig);
         } catch (final IOException ex) {
             Logger.error("Error loading config: " + configDirectory + " (" + ex.getMessage() + "). Exiting");
             System.exit(1);
@@ -277,6 +307,23 @@ public class DFBnc implements NewSocketReadyHandler {
         // Now that we have a config file, set the log buffer capacity correctly.
         rollingWriter.setCapacity(getConfig().getOptionInt("general", "logBuffer"));
 
+        Logger.info("Starting Config Writer");
+        configWriter = new ConfigWriter(getConfig().getOptionInt("general", "configsavedelay") * 1000L);
+        ConfigFileConfig.setWriter(configWriter);
+
+        Logger.info("Starting Scheduler");
+        scheduler = new Scheduler(getConfig().getOptionInt("general", "schedulerthreads"));
+
+        Logger.info("Starting Command Executor");
+        commandExecutor = new CommandExecutor(getConfig().getOptionInt("general", "commandthreads"));
+
+        Logger.info("Starting Password Verifier");
+        passwordVerifier = new PasswordVerifier(getConfig().getOptionInt("general", "passwordthreads"), getConfig().getOptionInt("general", "passwordqueuesize"), getConfig().getOptionInt("general", "passwordperaddress"));
+
+        Logger.info("Starting Log Writer");
+        logWriter = new LogWriter(getConfig().getOptionInt("general", "logqueuesize"), getConfig().getOptionInt("general", "logmaxopenfiles"));
+        logRotator = new LogRotator(logWriter);
+
         Logger.info("Setting up Default User Command Manager");
         userCommandManager.addCommand(new ServerTypeCommand(userCommandManager));
         userCommandManager.addCommand(new ShowCommand(userCommandManager));
@@ -296,11 +343,19 @@ public class DFBnc implements NewSocketReadyHandler {
         adminCommandManager.addCommand(new UnsuspendCommand(adminCommandManager));
         adminCommandManager.addCommand(new SetAdminCommand(adminCommandManager));
         adminCommandManager.addCommand(new ShutdownCommand(adminCommandManager));
+        adminCommandManager.addCommand(new LogStatsCommand(adminCommandManager));
+        adminCommandManager.addCommand(new SchedulerStatsCommand(adminCommandManager));
         adminCommandManager.addCommand(new DebugCommand(adminCommandManager));
 
         Logger.info("Setting up AuthProvider Manager");
         authProviderManager.addProvider(new ClientCertProvider());
 
+        Logger.info("Setting up PasswordHasher Manager");
+        passwordHasherManager.addHasher(new PBKDF2PasswordHasher(getConfig().getOptionInt("general", "passworditerations")));
+        if (!passwordHasherManager.setDefaultHasher(getConfig().getOption("general", "passwordhasher"))) {
+            Logger.warning("Unknown password hasher '" + getConfig().getOption("general", "passwordhasher") + "', using " + passwordHasherManager.getDefaultHasher().getHasherName());
+        }
+
         Logger.info("Setting up ServerType Manager");
         myServerTypeManager.init();
 
@@ -326,16 +381,10 @@ public class DFBnc implements NewSocketReadyHandler {
         // Check UserSockets every FREQUENCY seconds for inactivity, with a
         // threshold of THRESHOLD.
         // This will cause sockets to send an initial PING once the threshold has been hit
-        final Timer socketChecker = new Timer("Socket Checker Timer", true);
         final int pingThreshold = config.getOptionInt("timeout", "threshold");
-        final int pingFrequency = config.getOptionInt("timeout", "frequency") * 1000;
+        final int pingFrequency = config.getOptionInt("timeout", "frequency");
 
-        socketChecker.scheduleAtFixedRate(new TimerTask(){
-            @Override
-            public void run() {
-                UserSocket.checkAll(pingThreshold);
-            }
-        }, pingFrequency, pingFrequency);
+        scheduler.scheduleAtFixedRate(() -> UserSocket.checkAll(pingThreshold), pingFrequency, pingFrequency, TimeUnit.SECONDS);
 
         if (DFBncDaemon.canFork() && daemon.isDaemonized()) {
             Logger.info("Forked and running! (PID: " + DFBncDaemon.getPID() +")");
@@ -553,11 +602,38 @@ public class DFBnc implements NewSocketReadyHandler {
         accountManager.shutdown();
         accountManager.saveAccounts();
 
+        if (logWriter != null) {
+            Logger.info("Flushing server-side logs");
+            logWriter.shutdown();
+        }
+
+        if (logRotator != null) {
+            logRotator.shutdown();
+        }
+
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+
+        if (commandExecutor != null) {
+            commandExecutor.shutdown();
+        }
+
+        if (passwordVerifier != null) {
+            passwordVerifier.shutdown();
+        }
+
         if (config != null) {
             Logger.info("Saving config to '"+configFile+"'");
             config.save();
         }
 
+        if (configWriter != null) {
+            Logger.info("Flushing config files");
+            ConfigFileConfig.setWriter(null);
+            configWriter.shutdown();
+        }
+
         if (DFBncDaemon.canFork() && daemon.isDaemonized()) {
             if (!pidFile.isEmpty()) {
                 Logger.info("Removing pid file");
@@ -660,6 +736,71 @@ public class DFBnc implements NewSocketReadyHandler {
         return authProviderManager;
     }
 
+    /**
+     * Get the PasswordHasherManager
+     *
+     * @return The PasswordHasherManager
+     */
+    public static PasswordHasherManager getPasswordHasherManager() {
+        return passwordHasherManager;
+    }
+
+    /**
+     * Get the PasswordVerifier used to check passwords.
+     *
+     * @return The PasswordVerifier
+     */
+    public static PasswordVerifier getPasswordVerifier() {
+        return passwordVerifier;
+    }
+
+    /**
+     * Get the Scheduler used for delayed and periodic tasks.
+     *
+     * @return The Scheduler
+     */
+    public static Scheduler getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * Get the CommandExecutor used to run bot commands.
+     *
+     * @return The CommandExecutor
+     */
+    public static CommandExecutor getCommandExecutor() {
+        return commandExecutor;
+    }
+
+    /**
+     * Get the bundled default config.
+     *
+     * This is only read once, and is shared by everything that needs it.
+     *
+     * @return The default config
+     */
+    public static Config getDefaultsConfig() {
+        return defaultsConfig;
+    }
+
+    /**
+     * Get the ConfigWriter used to save configs.
+     *
+     * @return The ConfigWriter
+     */
+    public static ConfigWriter getConfigWriter() {
+        return configWriter;
+    }
+
+    /**
+     * Get the LogWriter used for server-side logging.
+     *
+     * @return The LogWriter
+     */
+    public static LogWriter getLogWriter() {
+        return logWriter;
+    }
+
     /**
      * Get the listenSockets array list
      *
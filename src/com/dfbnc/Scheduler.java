@@ -0,0 +1,234 @@
+/*
+ * Copyright (c) 2006-2017 DFBnc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.dfbnc;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import uk.org.dataforce.libs.logger.Logger;
+
+/**
+ * Runs delayed and periodic tasks for the whole BNC on a small, shared pool
+ * of threads, rather than each object having its own {@link java.util.Timer}
+ * thread.
+ *
+ * Tasks should be short; anything that might block for a long time should be
+ * handed off to its own thread.
+ *
+ * Exceptions thrown by tasks are logged, and do not stop periodic tasks from
+ * running again.
+ */
+public class Scheduler {
+
+    /** Executor that runs the tasks. */
+    private final ScheduledThreadPoolExecutor executor;
+
+    /** Number of tasks that have been run. */
+    private final AtomicLong tasksRun = new AtomicLong();
+
+    /** Number of tasks that have thrown an exception. */
+    private final AtomicLong tasksFailed = new AtomicLong();
+
+    /** Total time (in nanoseconds) tasks have started after they were due. */
+    private final AtomicLong totalLatency = new AtomicLong();
+
+    /** Longest time (in nanoseconds) a task has started after it was due. */
+    private final AtomicLong maxLatency = new AtomicLong();
+
+    /**
+     * Create a new Scheduler.
+     *
+     * @param threads Number of threads to use to run tasks.
+     */
+    public Scheduler(final int threads) {
+        final AtomicInteger threadCount = new AtomicInteger();
+        executor = new ScheduledThreadPoolExecutor(Math.max(1, threads), r -> {
+            final Thread thread = new Thread(r, "Scheduler - " + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Run a task once, after the given delay.
+     *
+     * @param task Task to run
+     * @param delay Delay before running the task
+     * @param unit Unit of delay
+     * @return Future that can be used to cancel the task.
+     */
+    public ScheduledFuture<?> schedule(final Runnable task, final long delay, final TimeUnit unit) {
+        return executor.schedule(new Task(task, delay, 0, unit), delay, unit);
+    }
+
+    /**
+     * Run a task repeatedly, at a fixed rate.
+     *
+     * @param task Task to run
+     * @param initialDelay Delay before running the task the first time
+     * @param period Time between each run starting
+     * @param unit Unit of delay and period
+     * @return Future that can be used to cancel the task.
+     */
+    public ScheduledFuture<?> scheduleAtFixedRate(final Runnable task, final long initialDelay, final long period, final TimeUnit unit) {
+        return executor.scheduleAtFixedRate(new Task(task, initialDelay, period, unit), initialDelay, period, unit);
+    }
+
+    /**
+     * Run a task repeatedly, with a fixed delay between one run finishing and
+     * the next starting.
+     *
+     * @param task Task to run
+     * @param initialDelay Delay before running the task the first time
+     * @param delay Time between each run finishing and the next starting
+     * @param unit Unit of delay and period
+     * @return Future that can be used to cancel the task.
+     */
+    public ScheduledFuture<?> scheduleWithFixedDelay(final Runnable task, final long initialDelay, final long delay, final TimeUnit unit) {
+        return executor.scheduleWithFixedDelay(new Task(task, initialDelay, -delay, unit), initialDelay, delay, unit);
+    }
+
+    /**
+     * Stop running tasks. Tasks that are already running are allowed to
+     * finish.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Get the number of threads currently in the pool.
+     *
+     * @return Number of threads.
+     */
+    public int getThreadCount() {
+        return executor.getPoolSize();
+    }
+
+    /**
+     * Get the number of threads currently running tasks.
+     *
+     * @return Number of busy threads.
+     */
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    /**
+     * Get the number of tasks waiting to run, including periodic tasks.
+     *
+     * @return Number of scheduled tasks.
+     */
+    public int getQueuedTaskCount() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * Get the number of times a task has been run.
+     *
+     * @return Number of tasks run.
+     */
+    public long getTasksRun() {
+        return tasksRun.get();
+    }
+
+    /**
+     * Get the number of times a task has thrown an exception.
+     *
+     * @return Number of tasks failed.
+     */
+    public long getTasksFailed() {
+        return tasksFailed.get();
+    }
+
+    /**
+     * Get the average time tasks have started after they were due.
+     *
+     * @return Average latency in milliseconds.
+     */
+    public double getAverageLatency() {
+        final long run = tasksRun.get();
+        return run == 0 ? 0 : totalLatency.get() / (double) run / 1000000;
+    }
+
+    /**
+     * Get the longest time a task has started after it was due.
+     *
+     * @return Maximum latency in milliseconds.
+     */
+    public double getMaxLatency() {
+        return maxLatency.get() / 1000000.0;
+    }
+
+    /**
+     * Wraps a task to record how late it runs and to log any exceptions.
+     */
+    private class Task implements Runnable {
+        /** Task to run. */
+        private final Runnable task;
+        /**
+         * Time (in nanoseconds) between runs: positive for fixed rate,
+         * negative for fixed delay or 0 for a task that only runs once.
+         */
+        private final long period;
+        /** Time (from System.nanoTime) the task is next due to run. */
+        private long due;
+
+        /**
+         * Create a new Task.
+         *
+         * @param task Task to run
+         * @param initialDelay Delay before running the task the first time
+         * @param period Time between runs, as for {@link #period}
+         * @param unit Unit of delay and period
+         */
+        Task(final Runnable task, final long initialDelay, final long period, final TimeUnit unit) {
+            this.task = task;
+            this.period = unit.toNanos(period);
+            this.due = System.nanoTime() + unit.toNanos(initialDelay);
+        }
+
+        @Override
+        public void run() {
+            final long latency = Math.max(0, System.nanoTime() - due);
+            tasksRun.incrementAndGet();
+            totalLatency.addAndGet(latency);
+            maxLatency.accumulateAndGet(latency, Math::max);
+
+            try {
+                task.run();
+            } catch (final Throwable t) {
+                tasksFailed.incrementAndGet();
+                Logger.error("Exception in scheduled task " + task + ": " + t);
+            }
+
+            if (period > 0) {
+                due += period;
+            } else if (period < 0) {
+                due = System.nanoTime() - period;
+            }
+        }
+    }
+}
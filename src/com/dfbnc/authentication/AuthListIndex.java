@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2006-2017 DFBnc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.dfbnc.authentication;
+
+import com.dfbnc.sockets.UserSocket;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parsed copy of an authlist, for checking sockets against it.
+ *
+ * Entries for providers that can give a {@link AuthProvider#getLookupKey lookup key}
+ * (such as client certificate fingerprints) are indexed by their parameters, so
+ * checking them is a single map lookup however many entries there are. Other
+ * entries are checked in order as before.
+ *
+ * An AuthListIndex is never modified after it is created, and should be thrown
+ * away when the authlist it was made from changes.
+ */
+public class AuthListIndex {
+
+    /** All valid entries, in authlist order. */
+    private final List<Entry> entries = new ArrayList<>();
+
+    /** Map of provider name to map of parameters to the first entry with them. */
+    private final Map<String, Map<String, Entry>> index = new HashMap<>();
+
+    /** Providers that have entries in this list. */
+    private final Map<String, AuthProvider> providers = new HashMap<>();
+
+    /**
+     * Create a new AuthListIndex.
+     *
+     * @param authList Entries from the authlist, in the form "PROVIDER params"
+     * @param manager Manager to get providers from
+     */
+    public AuthListIndex(final List<String> authList, final AuthProviderManager manager) {
+        int i = 0;
+        for (final String line : authList) {
+            final String[] bits = line.split(" ", 2);
+            if (bits.length > 1 && manager.hasProvider(bits[0])) {
+                final AuthProvider provider = manager.getProvider(bits[0]);
+                final Entry entry = new Entry(i, provider, bits[1]);
+                entries.add(entry);
+                providers.putIfAbsent(provider.getProviderName(), provider);
+                index.computeIfAbsent(provider.getProviderName(), k -> new HashMap<>()).putIfAbsent(bits[1], entry);
+            }
+            i++;
+        }
+    }
+
+    /**
+     * Find the first entry in the authlist that the given socket passes.
+     *
+     * @param user UserSocket to check
+     * @return The position of the entry in the authlist, or -1 if none pass.
+     */
+    public int check(final UserSocket user) {
+        // Look up the indexed providers first, to find out how far through
+        // the list we need to check the others.
+        final Map<AuthProvider, Boolean> indexed = new HashMap<>();
+        Entry found = null;
+        for (final AuthProvider provider : providers.values()) {
+            final String key = provider.getLookupKey(user);
+            indexed.put(provider, key != null);
+            if (key != null) {
+                final Entry entry = index.get(provider.getProviderName()).get(key);
+                if (entry != null && (found == null || entry.position < found.position)) {
+                    found = entry;
+                }
+            }
+        }
+
+        for (final Entry entry : entries) {
+            if (found != null && entry.position >= found.position) {
+                break;
+            }
+            if (!indexed.get(entry.provider) && entry.provider.checkAuthentication(user, entry.params)) {
+                return entry.position;
+            }
+        }
+
+        return found == null ? -1 : found.position;
+    }
+
+    /**
+     * Get the name of the provider for the entry at the given position.
+     *
+     * @param position Position of the entry in the authlist
+     * @return Name of the provider, or null if there is no valid entry there.
+     */
+    public String getProviderName(final int position) {
+        for (final Entry entry : entries) {
+            if (entry.position == position) {
+                return entry.provider.getProviderName();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * A single valid authlist entry.
+     */
+    private static class Entry {
+        /** Position of this entry in the authlist. */
+        private final int position;
+
+        /** Provider for this entry. */
+        private final AuthProvider provider;
+
+        /** Parameters for this entry. */
+        private final String params;
+
+        /**
+         * Create a new Entry.
+         *
+         * @param position Position of this entry in the authlist
+         * @param provider Provider for this entry
+         * @param params Parameters for this entry
+         */
+        Entry(final int position, final AuthProvider provider, final String params) {
+            this.position = position;
+            this.provider = provider;
+            this.params = params;
+        }
+    }
+}
@@ -52,6 +52,20 @@ public abstract class AuthProvider {
      */
     public abstract boolean checkAuthentication(final UserSocket user, final String test);
 
+    /**
+     * Get the parameters that an authlist entry needs to have for the given
+     * user to pass, if this provider only ever passes exact matches.
+     *
+     * This allows authlists to be indexed rather than checking every entry
+     * with {@link #checkAuthentication(UserSocket, String)}.
+     *
+     * @param user UserSocket to check
+     * @return Parameters to look up, or null if entries need to be checked individually.
+     */
+    public String getLookupKey(final UserSocket user) {
+        return null;
+    }
+
     /**
      * Validate input to see if it can be added to the authlist.
      * This also allows the provider to make changes if required before saving.
@@ -6,6 +6,7 @@ import com.dfbnc.Consts;
 import com.dfbnc.DFBnc;
 import com.dfbnc.sockets.UserSocket;
 
+import java.util.function.Consumer;
 import uk.org.dataforce.libs.logger.Logger;
 
 /**
@@ -23,6 +24,8 @@ public class Authenticator {
         WAITING_FOR_PASS,
         /** The authenticator is ready to authenticate. */
         READY,
+        /** The authenticator is checking the password. */
+        VERIFYING,
         /** The authenticator is done and no more work is needed. */
         FINISHED,
     }
@@ -43,6 +46,7 @@ public class Authenticator {
     // TODO: make this a config setting
     private int remainingPasswordTries = 3;
     private boolean success;
+    private volatile boolean verifying;
 
     /**
      * Creates a new authenticator for the given socket.
@@ -130,6 +134,10 @@ public class Authenticator {
             return Status.WAITING_FOR_NICK_OR_USER;
         }
 
+        if (this.verifying) {
+            return Status.VERIFYING;
+        }
+
         if (this.password == null && this.needPassword) {
             return Status.WAITING_FOR_PASS;
         }
@@ -159,6 +167,50 @@ public class Authenticator {
         return clientType;
     }
 
+    /**
+     * Attempts to authenticate the connection, using the {@link PasswordVerifier} so that slow password checks don't
+     * hold up the socket thread.
+     *
+     * <p>Should only be called when {@link #getStatus()} indicates that the authenticator is {@link Status#READY}. Until
+     * the callback has been called, the status will be {@link Status#VERIFYING}.
+     *
+     * <p>The callback is given the result of {@link #authenticate(String)}, and is called on the verifier's thread, or
+     * on this thread if the authlist has already been passed (e.g. by a client certificate) or if the attempt is
+     * refused because too many are already in progress. A refused attempt closes the socket.
+     *
+     * @param responseCommand The command the user entered that this authentication attempt was triggered by; used
+     *                        in error responses.
+     * @param callback Callback to pass the {@link Account} to if auth was successful, or {@code null} otherwise.
+     */
+    public void authenticate(final String responseCommand, final Consumer<Account> callback) {
+        if (!needPassword && password == null) {
+            // Already passed the authlist, so there is no password to check.
+            callback.accept(authenticate(responseCommand));
+            return;
+        }
+
+        verifying = true;
+        final String address = userSocket.getIP().startsWith("@") ? userSocket.getIP().substring(1) : userSocket.getIP();
+        final boolean submitted = DFBnc.getPasswordVerifier().submit(address, () -> {
+            Account account = null;
+            try {
+                account = authenticate(responseCommand);
+            } finally {
+                verifying = false;
+                callback.accept(account);
+            }
+        });
+
+        if (!submitted) {
+            verifying = false;
+            remainingPasswordTries = 0;
+            userSocket.sendIRCLine(Consts.ERR_PASSWDMISMATCH, responseCommand, "Too many login attempts in progress, closing socket.");
+            userSocket.sendBotMessage("Too many login attempts in progress, closing socket.");
+            userSocket.close("Too many login attempts in progress.");
+            callback.accept(null);
+        }
+    }
+
     /**
      * Attempts to authenticate the connection.
      *
@@ -213,7 +265,7 @@ public class Authenticator {
             } else {
                 userSocket.sendBotMessage("The given account does not exist, so an account has been created for you.");
             }
-            accountManager.saveAccounts();
+            acc.save();
             bnc.getConfig().save();
         }
     }
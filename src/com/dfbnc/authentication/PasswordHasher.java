@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2006-2017 DFBnc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dfbnc.authentication;
+
+/**
+ * Password hasher base class.
+ *
+ * Hashers store everything they need to check a password (such as the salt
+ * and any cost parameters) in the hash itself, in the form
+ * {@code name$...}, so that the hasher for a stored hash can be found from
+ * the hash.
+ */
+public abstract class PasswordHasher {
+    /**
+     * Name of this hasher.
+     *
+     * This needs to be a single word, without any $ characters, as it is
+     * used as the start of each hash.
+     *
+     * @return Name of hasher
+     */
+    public abstract String getHasherName();
+
+    /**
+     * Hash a password, using a new random salt.
+     *
+     * @param password Password to hash
+     * @return Hash to store
+     */
+    public abstract String hash(final String password);
+
+    /**
+     * Check if a password matches a stored hash.
+     *
+     * @param password Password to check
+     * @param hash Stored hash, as returned by {@link #hash(String)}
+     * @return True if the password matches.
+     */
+    public abstract boolean verify(final String password, final String hash);
+
+    /**
+     * Check if a stored hash was made with weaker parameters than this hasher
+     * currently uses, and should be replaced next time the password is known.
+     *
+     * @param hash Stored hash, as returned by {@link #hash(String)}
+     * @return True if the password should be hashed again.
+     */
+    public abstract boolean needsRehash(final String hash);
+
+}
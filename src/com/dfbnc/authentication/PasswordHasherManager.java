@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2006-2017 DFBnc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dfbnc.authentication;
+
+import java.util.HashMap;
+import java.util.Map;
+import uk.org.dataforce.libs.logger.Logger;
+
+/**
+ * Password Hasher Manager.
+ */
+public class PasswordHasherManager {
+    private final Map<String, PasswordHasher> hashers = new HashMap<>();
+
+    /** Hasher used for new passwords. */
+    private PasswordHasher defaultHasher;
+
+    /**
+     * Add a hasher to this manager.
+     * The first hasher added is used for new passwords until
+     * {@link #setDefaultHasher(String)} is called.
+     *
+     * @param hasher Hasher to add.
+     */
+    public void addHasher(final PasswordHasher hasher) {
+        hashers.put(hasher.getHasherName().toLowerCase(), hasher);
+        if (defaultHasher == null) {
+            defaultHasher = hasher;
+        }
+        Logger.debug("Adding PasswordHasher: " + hasher.getHasherName());
+    }
+
+    /**
+     * Set the hasher used for new passwords.
+     *
+     * @param name Name of hasher to use.
+     * @return True if the hasher exists, else false.
+     */
+    public boolean setDefaultHasher(final String name) {
+        final PasswordHasher hasher = hashers.get(name.toLowerCase());
+        if (hasher != null) {
+            defaultHasher = hasher;
+        }
+        return hasher != null;
+    }
+
+    /**
+     * Get the hasher used for new passwords.
+     *
+     * @return Default hasher.
+     */
+    public PasswordHasher getDefaultHasher() {
+        return defaultHasher;
+    }
+
+    /**
+     * Get the hasher that made the given hash.
+     *
+     * @param hash Stored hash.
+     * @return Hasher or Null if the hash was not made by a known hasher.
+     */
+    public PasswordHasher getHasherFor(final String hash) {
+        if (hash == null) {
+            return null;
+        }
+        final int end = hash.indexOf('$');
+        return end > 0 ? hashers.get(hash.substring(0, end).toLowerCase()) : null;
+    }
+
+    /**
+     * Check if the given hash should be replaced with a hash from the default
+     * hasher, next time the password is known.
+     *
+     * @param hash Stored hash.
+     * @return True if the password should be hashed again.
+     */
+    public boolean needsRehash(final String hash) {
+        final PasswordHasher hasher = getHasherFor(hash);
+        return hasher != defaultHasher || hasher.needsRehash(hash);
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2006-2017 DFBnc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dfbnc.authentication;
+
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import uk.org.dataforce.libs.logger.Logger;
+
+/**
+ * Runs password checks on a small pool of threads.
+ *
+ * Password hashes are deliberately slow, so checking them on the socket
+ * threads would let a burst of logins hold up everyone else. The number of
+ * checks waiting is bounded, as is the number waiting for any one address,
+ * so that a brute-force attempt can't use up all of the CPU or the queue.
+ */
+public class PasswordVerifier {
+
+    /** Executor that runs the checks. */
+    private final ThreadPoolExecutor executor;
+
+    /** Maximum number of checks waiting or running for one address. */
+    private final int maxPerAddress;
+
+    /** Number of checks waiting or running for each address. */
+    private final Map<String, Integer> pending = new ConcurrentHashMap<>();
+
+    /** Number of checks that have been refused. */
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * Create a new PasswordVerifier.
+     *
+     * @param threads Number of threads to use.
+     * @param queueSize Maximum number of checks waiting for a thread.
+     * @param maxPerAddress Maximum number of checks waiting or running for
+     *                      one address.
+     */
+    public PasswordVerifier(final int threads, final int queueSize, final int maxPerAddress) {
+        final AtomicInteger threadCount = new AtomicInteger();
+        final int size = Math.max(1, threads);
+        executor = new ThreadPoolExecutor(size, size, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(Math.max(1, queueSize)), r -> {
+            final Thread thread = new Thread(r, "Password Verifier - " + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+        this.maxPerAddress = Math.max(1, maxPerAddress);
+    }
+
+    /**
+     * Run a check for the given address, if the limits allow it.
+     *
+     * @param address Address the check is for.
+     * @param check Check to run.
+     * @return True if the check will be run, false if it was refused.
+     */
+    public boolean submit(final String address, final Runnable check) {
+        final int count = pending.merge(address, 1, Integer::sum);
+        if (count > maxPerAddress) {
+            release(address);
+            rejected.incrementAndGet();
+            Logger.info("Refusing password check for " + address + ": too many in progress.");
+            return false;
+        }
+
+        try {
+            executor.execute(() -> {
+                try {
+                    check.run();
+                } catch (final Throwable t) {
+                    Logger.error("Exception in password check for " + address + ": " + t);
+                } finally {
+                    release(address);
+                }
+            });
+            return true;
+        } catch (final RejectedExecutionException ex) {
+            release(address);
+            rejected.incrementAndGet();
+            Logger.info("Refusing password check for " + address + ": queue is full.");
+            return false;
+        }
+    }
+
+    /**
+     * Note that a check for the given address is no longer pending.
+     *
+     * @param address Address the check was for.
+     */
+    private void release(final String address) {
+        pending.computeIfPresent(address, (k, v) -> v <= 1 ? null : v - 1);
+    }
+
+    /**
+     * Stop running checks.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Get the number of checks currently running.
+     *
+     * @return Number of busy threads.
+     */
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    /**
+     * Get the number of checks waiting for a thread.
+     *
+     * @return Number of waiting checks.
+     */
+    public int getQueuedCount() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * Get the number of checks that have been refused.
+     *
+     * @return Number of refused checks.
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+}
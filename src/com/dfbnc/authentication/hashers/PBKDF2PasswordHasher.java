@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2006-2017 DFBnc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dfbnc.authentication.hashers;
+
+import com.dfbnc.authentication.PasswordHasher;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+/**
+ * Hasher that uses PBKDF2 with HMAC-SHA256.
+ *
+ * Hashes are stored as {@code pbkdf2-sha256$iterations$salt$hash}, with the
+ * salt and hash base64 encoded.
+ */
+public class PBKDF2PasswordHasher extends PasswordHasher {
+
+    /** Algorithm to use. */
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+
+    /** Length of salt in bytes. */
+    private static final int SALT_LENGTH = 16;
+
+    /** Length of hash in bits. */
+    private static final int HASH_LENGTH = 256;
+
+    /** Random number generator for salts. */
+    private final SecureRandom random = new SecureRandom();
+
+    /** Number of iterations to use for new hashes. */
+    private final int iterations;
+
+    /**
+     * Create a new PBKDF2PasswordHasher.
+     *
+     * @param iterations Number of iterations to use for new hashes.
+     */
+    public PBKDF2PasswordHasher(final int iterations) {
+        this.iterations = Math.max(1, iterations);
+    }
+
+    @Override
+    public String getHasherName() {
+        return "pbkdf2-sha256";
+    }
+
+    @Override
+    public String hash(final String password) {
+        final byte[] salt = new byte[SALT_LENGTH];
+        random.nextBytes(salt);
+
+        final Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        return getHasherName() + '$' + iterations + '$' + encoder.encodeToString(salt) + '$' + encoder.encodeToString(derive(password, salt, iterations));
+    }
+
+    @Override
+    public boolean verify(final String password, final String hash) {
+        final String[] bits = hash.split("\\$");
+        if (bits.length != 4 || !bits[0].equalsIgnoreCase(getHasherName())) {
+            return false;
+        }
+
+        try {
+            final Base64.Decoder decoder = Base64.getUrlDecoder();
+            final byte[] expected = decoder.decode(bits[3]);
+            return MessageDigest.isEqual(expected, derive(password, decoder.decode(bits[2]), Integer.parseInt(bits[1])));
+        } catch (final IllegalArgumentException ex) {
+            // Includes NumberFormatException.
+            return false;
+        }
+    }
+
+    @Override
+    public boolean needsRehash(final String hash) {
+        final String[] bits = hash.split("\\$");
+        try {
+            return bits.length != 4 || Integer.parseInt(bits[1]) < iterations;
+        } catch (final NumberFormatException ex) {
+            return true;
+        }
+    }
+
+    /**
+     * Derive the hash for a password.
+     *
+     * @param password Password to hash
+     * @param salt Salt to use
+     * @param rounds Number of iterations
+     * @return Derived hash.
+     */
+    private static byte[] derive(final String password, final byte[] salt, final int rounds) {
+        if (rounds < 1) {
+            throw new IllegalArgumentException("Invalid iterations: " + rounds);
+        }
+
+        final PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, rounds, HASH_LENGTH);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (final GeneralSecurityException ex) {
+            throw new IllegalStateException("Unable to hash password: " + ex.getMessage(), ex);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+}
@@ -44,6 +44,11 @@ public class ClientCertProvider extends AuthProvider {
         return user.getClientCertFP().equals(test);
     }
 
+    @Override
+    public String getLookupKey(final UserSocket user) {
+        return user.getClientCertFP();
+    }
+
     @Override
     public String validateParams(final UserSocket user, final String subClientID, final String input) {
         if (input.isEmpty()) {
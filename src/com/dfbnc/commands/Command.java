@@ -116,6 +116,19 @@ public abstract class Command {
         return true;
     }
 
+    /**
+     * Can this command be run by the CommandExecutor, rather than on the
+     * socket thread?
+     *
+     * Account and connection state is not thread-safe, so only commands that
+     * just report information (and don't change anything) should return true.
+     *
+     * @return true if this command can be run in the background.
+     */
+    public boolean allowBackground() {
+        return false;
+    }
+
     /**
      * Get the name for this Command in lowercase.
      *
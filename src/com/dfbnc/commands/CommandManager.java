@@ -28,15 +28,16 @@ import uk.org.dataforce.libs.logger.Logger;
 
 import java.util.AbstractMap.SimpleImmutableEntry;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.NavigableMap;
 import java.util.Optional;
-import java.util.Set;
 import java.util.TreeMap;
-import java.util.stream.Collectors;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * DFBNC Command Manager.
@@ -50,6 +51,7 @@ public final class CommandManager {
     /** Nesting limit for calls to getCommand() */
     private static final int NESTING_LIMIT = 10;
 
+
     /** HashMap used to store the different types of Command known. */
     private final Map<String, Command> knownCommands = new HashMap<>();
 
@@ -59,6 +61,15 @@ public final class CommandManager {
     /** Config to use to get settings. */
     private final Config config;
 
+    /**
+     * Incremented whenever the commands or sub-managers of this
+     * CommandManager change.
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    /** Index of all the commands available to this CommandManager. */
+    private volatile CommandIndex index;
+
     /**
      * Constructor to create a CommandManager using the global config.
      */
@@ -89,6 +100,7 @@ public final class CommandManager {
      */
     public void empty() {
         knownCommands.clear();
+        generation.incrementAndGet();
     }
 
     /**
@@ -110,12 +122,11 @@ public final class CommandManager {
      * @return True if manager is a SubManager of this or one of its SubManagers.
      */
     public boolean hasSubCommandManager(final CommandManager manager) {
-        return subManagers.parallelStream().anyMatch(s -> s == manager || s.hasSubCommandManager(manager));
+        return subManagers.stream().anyMatch(s -> s == manager || s.hasSubCommandManager(manager));
     }
 
     /**
      * Get all the commands available to this CommandManager.
-     * This is potentially expensive.
      *
      * @param allowAdmin Allow admin-only commands?
      * @return Map of available commands.
@@ -126,7 +137,6 @@ public final class CommandManager {
 
     /**
      * Get all the commands available to this CommandManager.
-     * This is potentially expensive.
      *
      * @param startsWith Limit to commands that start with this string. "" or
      *        "?" will return all commands.
@@ -134,27 +144,41 @@ public final class CommandManager {
      * @return Map of available commands.
      */
     public Map<String, Command> getAllCommands(final String startsWith, final boolean allowAdmin) {
-        final String sw = startsWith.toLowerCase();
-        final boolean allCommands = startsWith.isEmpty() || startsWith.equals("?");
-
-        // First get our own commands
-        final Map<String, Command> result = knownCommands
-                .entrySet()
-                .parallelStream()
-                .filter(e -> allowAdmin || !e.getValue().isAdminOnly())
-                .filter(e -> allCommands || e.getKey().startsWith(sw) || e.getKey().startsWith(HIDDEN_PREFIX + sw))
-                .collect(Collectors.toMap(Entry::getKey, Entry::getValue));
-
-        // Now all our submanagers' commands
-        for (CommandManager subManager : subManagers) {
-            result.putAll(
-                    subManager.getAllCommands(startsWith, allowAdmin)
-                            .entrySet()
-                            .parallelStream()
-                            .filter(entry -> !result.containsKey(entry.getKey()))
-                            .collect(Collectors.toMap(Entry::getKey, Entry::getValue)));
+        final NavigableMap<String, Command> commands = getIndex().getCommands(allowAdmin);
+        if (startsWith.isEmpty() || startsWith.equals("?")) {
+            return new HashMap<>(commands);
         }
 
+        final String sw = startsWith.toLowerCase();
+        final Map<String, Command> result = new HashMap<>(getPrefixed(commands, sw));
+        result.putAll(getPrefixed(commands, HIDDEN_PREFIX + sw));
+        return result;
+    }
+
+    /**
+     * Get a view of the commands in the given map that start with a prefix.
+     *
+     * @param commands Commands to look in.
+     * @param prefix Prefix to look for.
+     * @return View of the commands starting with the prefix.
+     */
+    private static NavigableMap<String, Command> getPrefixed(final NavigableMap<String, Command> commands, final String prefix) {
+        return commands.subMap(prefix, true, prefix + Character.MAX_VALUE, false);
+    }
+
+    /**
+     * Get the index of commands available to this CommandManager, rebuilding
+     * it if it or any of its sub-managers have changed since it was last
+     * built.
+     *
+     * @return Current CommandIndex.
+     */
+    private CommandIndex getIndex() {
+        CommandIndex result = index;
+        if (result == null || !result.isCurrent()) {
+            result = new CommandIndex(generation.get());
+            index = result;
+        }
         return result;
     }
 
@@ -165,11 +189,15 @@ public final class CommandManager {
      * @return true if the CommandManager was added, else false.
      */
     public boolean addSubCommandManager(final CommandManager manager) {
-        return !hasSubCommandManager(manager)
+        if (!hasSubCommandManager(manager)
                 && manager != this
                 && !manager.hasSubCommandManager(this)
-                && subManagers.parallelStream().noneMatch(manager::hasSubCommandManager)
-                && subManagers.add(manager);
+                && subManagers.stream().noneMatch(manager::hasSubCommandManager)
+                && subManagers.add(manager)) {
+            generation.incrementAndGet();
+            return true;
+        }
+        return false;
     }
 
     /**
@@ -179,7 +207,11 @@ public final class CommandManager {
      * @return true if the CommandManager was removed, else false.
      */
     public boolean delSubCommandManager(final CommandManager manager) {
-        return subManagers.remove(manager);
+        if (subManagers.remove(manager)) {
+            generation.incrementAndGet();
+            return true;
+        }
+        return false;
     }
 
     /**
@@ -213,6 +245,8 @@ public final class CommandManager {
             Logger.error("Error adding Command '"+command.toString()+"': "+e.getMessage());
             delCommand(command);
             return null;
+        } finally {
+            generation.incrementAndGet();
         }
         return command;
     }
@@ -225,6 +259,7 @@ public final class CommandManager {
     public void delCommand(final Command command) {
         Logger.debug("Deleting command: " + command.getName());
         knownCommands.values().removeIf(c -> c.getName().equalsIgnoreCase(command.getName()));
+        generation.incrementAndGet();
     }
 
     /**
@@ -250,18 +285,27 @@ public final class CommandManager {
 
         if (getConfig().getOptionBool("general", "allowshortcommands")) {
             Logger.debug5("Short commands enabled.");
-            // Find a matching command.
-            final Map<String, Command> cmds = new TreeMap<>(getAllCommands(name, allowAdmin));
-            final Set<Command> commands = new HashSet<>(cmds.values());
-            Logger.debug5("Matching Handlers: " + cmds.size());
-            Logger.debug5("Matching Commands: " + commands.size());
+            // Find a matching command. Hidden handlers all start with
+            // HIDDEN_PREFIX, so are kept separately from the others.
+            final NavigableMap<String, Command> commands = getIndex().getCommands(allowAdmin);
+            final NavigableMap<String, Command> hidden = getPrefixed(commands, HIDDEN_PREFIX + name.toLowerCase());
+            final NavigableMap<String, Command> visible = getPrefixed(commands, name.toLowerCase());
+            if (hidden.isEmpty() && visible.isEmpty()) {
+                Logger.debug5("No matching handlers.");
+                return Optional.empty();
+            }
+            final Entry<String, Command> first = hidden.isEmpty() ? visible.firstEntry()
+                    : visible.isEmpty() || hidden.firstKey().compareTo(visible.firstKey()) < 0 ? hidden.firstEntry() : visible.firstEntry();
 
             // Check for only 1 resulting command.
             // This checks for only one handler for the given word, or in the
             // case of multiple matching handlers, are they actually just the
             // same command anyway?
-            if (cmds.size() == 1 || commands.size() == 1) {
-                final Entry<String, Command> entry = cmds.entrySet().iterator().next();
+            final boolean singleCommand = isOnly(hidden, first.getValue()) && isOnly(visible, first.getValue());
+            final int handlers = hidden.size() + visible.size();
+            Logger.debug5("Matching Handlers: " + handlers);
+            if (singleCommand) {
+                final Entry<String, Command> entry = first;
                 Logger.debug5("Matching Handler: " + entry);
                 // Don't match this command if the short form is not permitted.
                 if (!entry.getValue().allowShort(entry.getKey())) {
@@ -269,7 +313,7 @@ public final class CommandManager {
                 }
 
                 String handlerName = entry.getKey().charAt(0) == HIDDEN_PREFIX ? entry.getKey().substring(1) : entry.getKey();
-                if (cmds.size() > 1) {
+                if (handlers > 1) {
                     // Single command, but multiple handles. Use the
                     // earliest one from the handles array.
                     Logger.debug5("Multi handler match");
@@ -285,17 +329,18 @@ public final class CommandManager {
                 // Last ditch attempt, see if there is a single non-hidden
                 // command returned.
                 Entry<String, Command> unhidden = null;
-                for (Entry<String, Command> entry : cmds.entrySet()) {
-                    // Check if this is a non-hidden entry
-                    if (entry.getKey().charAt(0) != HIDDEN_PREFIX) {
-                        // If we have found no un-hidden entries yet, save it
-                        // otherwise, if we have already found one, then abort
-                        // and forget about any we found.
-                        if (unhidden == null) {
-                            unhidden = new SimpleImmutableEntry<>(entry);
-                        } else {
-                            unhidden = null;
-                            break;
+                for (NavigableMap<String, Command> matches : Arrays.asList(hidden, visible)) {
+                    for (Entry<String, Command> entry : matches.entrySet()) {
+                        // Check if this is a non-hidden entry
+                        if (entry.getKey().charAt(0) != HIDDEN_PREFIX) {
+                            // If we have found no un-hidden entries yet, save it
+                            // otherwise, if we have already found one, then abort
+                            // and forget about any we found.
+                            if (unhidden == null) {
+                                unhidden = new SimpleImmutableEntry<>(entry);
+                            } else {
+                                return Optional.empty();
+                            }
                         }
                     }
                 }
@@ -307,6 +352,22 @@ public final class CommandManager {
         return Optional.empty();
     }
 
+    /**
+     * Check if every entry in a map is for the given command.
+     *
+     * @param commands Map to check.
+     * @param command Command to look for.
+     * @return True if there are no other commands in the map.
+     */
+    private static boolean isOnly(final Map<String, Command> commands, final Command command) {
+        for (Command c : commands.values()) {
+            if (!c.equals(command)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Get the command used for a specified name.
      *
@@ -337,26 +398,41 @@ public final class CommandManager {
      * @return Command for the given name.
      */
     protected Optional<Command> getCommand(final String name, final boolean allowAdmin, final int nesting) {
-        Command result = null;
-        if (knownCommands.containsKey(name.toLowerCase())) {
-            result = knownCommands.get(name.toLowerCase());
-        } else if (knownCommands.containsKey(HIDDEN_PREFIX + name.toLowerCase())) {
-            result = knownCommands.get(HIDDEN_PREFIX + name.toLowerCase());
+        if (nesting == 0) {
+            return Optional.ofNullable(getIndex().getExact(allowAdmin).get(name.toLowerCase()));
+        }
+        return Optional.ofNullable(findCommand(name.toLowerCase(), allowAdmin, nesting));
+    }
+
+    /**
+     * Look for the command used for a specified name, without using the
+     * index.
+     *
+     * @param name Lower case name to look for
+     * @param allowAdmin Allow admin-only commands?
+     * @param nesting Amount of previous calls.
+     * @return Command for the given name, or null.
+     */
+    private Command findCommand(final String name, final boolean allowAdmin, final int nesting) {
+        Command result = knownCommands.get(name);
+        if (result == null) {
+            result = knownCommands.get(HIDDEN_PREFIX + name);
         }
 
         if (result != null && (!result.isAdminOnly() || allowAdmin)) {
-            return Optional.of(result);
+            return result;
         }
 
         if (nesting <= NESTING_LIMIT) {
-            return subManagers.stream()
-                    .map(m -> m.getCommand(name, allowAdmin, nesting + 1))
-                    .filter(Optional::isPresent)
-                    .findFirst()
-                    .orElse(Optional.<Command>empty());
+            for (CommandManager subManager : subManagers) {
+                result = subManager.findCommand(name, allowAdmin, nesting + 1);
+                if (result != null) {
+                    return result;
+                }
+            }
         }
 
-        return Optional.empty();
+        return null;
     }
 
     /**
@@ -396,5 +472,137 @@ public final class CommandManager {
             throw new CommandException(ex.getMessage(), ex);
         }
     }
-}
 
+    /**
+     * Sorted index of all the commands available to a CommandManager,
+     * including those from its sub-managers.
+     *
+     * Indexes are never changed once built; when anything changes a new one
+     * is built the next time it is needed.
+     */
+    private class CommandIndex {
+        /** Value of our generation when this index was built. */
+        private final long builtGeneration;
+        /** Indexes of our sub-managers that this index was built from. */
+        private final List<CommandIndex> subIndexes = new ArrayList<>();
+        /** All commands, by handler. */
+        private final NavigableMap<String, Command> adminCommands;
+        /** Non-admin commands, by handler. */
+        private final NavigableMap<String, Command> userCommands;
+        /** All commands, by name with and without any HIDDEN_PREFIX. */
+        private final Map<String, Command> adminExact;
+        /** Non-admin commands, by name with and without any HIDDEN_PREFIX. */
+        private final Map<String, Command> userExact;
+
+        /**
+         * Build a new CommandIndex.
+         *
+         * @param builtGeneration Value of our generation before building.
+         */
+        CommandIndex(final long builtGeneration) {
+            this.builtGeneration = builtGeneration;
+            for (CommandManager subManager : subManagers) {
+                subIndexes.add(subManager.getIndex());
+            }
+            adminCommands = Collections.unmodifiableNavigableMap(buildCommands(true));
+            userCommands = Collections.unmodifiableNavigableMap(buildCommands(false));
+            adminExact = Collections.unmodifiableMap(buildExact(true));
+            userExact = Collections.unmodifiableMap(buildExact(false));
+        }
+
+        /**
+         * Check if this index is still up to date.
+         *
+         * It is if our own commands and sub-managers haven't changed, and
+         * each sub-manager still has the index this one was built from (as
+         * sub-managers replace their index whenever they, or their own
+         * sub-managers, change).
+         *
+         * @return True if this index can still be used.
+         */
+        boolean isCurrent() {
+            if (builtGeneration != generation.get() || subIndexes.size() != subManagers.size()) {
+                return false;
+            }
+            for (int i = 0; i < subIndexes.size(); i++) {
+                if (subManagers.get(i).getIndex() != subIndexes.get(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Get the commands by handler. Our own commands take priority over
+         * those of sub-managers.
+         *
+         * @param allowAdmin Allow admin-only commands?
+         * @return Map of handlers to commands.
+         */
+        NavigableMap<String, Command> getCommands(final boolean allowAdmin) {
+            return allowAdmin ? adminCommands : userCommands;
+        }
+
+        /**
+         * Get the commands by name, as used by {@link #getCommand(String, boolean)}.
+         *
+         * @param allowAdmin Allow admin-only commands?
+         * @return Map of names to commands.
+         */
+        Map<String, Command> getExact(final boolean allowAdmin) {
+            return allowAdmin ? adminExact : userExact;
+        }
+
+        /**
+         * Build the map of handlers to commands.
+         *
+         * @param allowAdmin Allow admin-only commands?
+         * @return Map of handlers to commands.
+         */
+        private NavigableMap<String, Command> buildCommands(final boolean allowAdmin) {
+            final NavigableMap<String, Command> result = new TreeMap<>();
+            knownCommands.forEach((handle, command) -> {
+                if (allowAdmin || !command.isAdminOnly()) {
+                    result.put(handle, command);
+                }
+            });
+            for (CommandIndex subIndex : subIndexes) {
+                subIndex.getCommands(allowAdmin).forEach(result::putIfAbsent);
+            }
+            return result;
+        }
+
+        /**
+         * Build the map of names to commands. Hidden commands can be looked
+         * up both with and without the HIDDEN_PREFIX.
+         *
+         * @param allowAdmin Allow admin-only commands?
+         * @return Map of names to commands.
+         */
+        private Map<String, Command> buildExact(final boolean allowAdmin) {
+            final Map<String, Command> result = new HashMap<>();
+            for (String handle : adminCommands.keySet()) {
+                if (handle.charAt(0) == HIDDEN_PREFIX) {
+                    addExact(result, handle.substring(1), allowAdmin);
+                }
+                addExact(result, handle, allowAdmin);
+            }
+            return result;
+        }
+
+        /**
+         * Add the command that would be found for a name to a map of names to
+         * commands.
+         *
+         * @param result Map to add to.
+         * @param name Name to look up.
+         * @param allowAdmin Allow admin-only commands?
+         */
+        private void addExact(final Map<String, Command> result, final String name, final boolean allowAdmin) {
+            final Command command = findCommand(name, allowAdmin, 0);
+            if (command != null) {
+                result.put(name, command);
+            }
+        }
+    }
+}
@@ -23,6 +23,7 @@ package com.dfbnc.commands;
 
 import com.dfbnc.sockets.UserSocket;
 
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.function.Predicate;
@@ -30,15 +31,31 @@ import java.util.function.Predicate;
 /**
  * Output from commands is buffered through CommandOutputBuffer objects, as this
  * allows output to be filtered.
+ *
+ * Output can also be streamed through a chain of {@link CommandOutputSink}s
+ * (see {@link #stream(CommandOutputSink)}), in which case it is not buffered
+ * here at all, and is sent to the user in chunks as it is produced.
  */
 public class CommandOutputBuffer {
 
+    /** Number of lines to send to the user at once when streaming. */
+    private static final int CHUNK_SIZE = 50;
+
     /** UserSocket to send output to. */
     private final UserSocket user;
 
     /** Messages for output. */
     private final List<String> messages = new LinkedList<>();
 
+    /** Sink that sends output to the user in chunks, if streaming. */
+    private CommandOutputSink userSink;
+
+    /** Sink that output is streamed to, or null if output is buffered. */
+    private CommandOutputSink sink;
+
+    /** Has the sink said it doesn't want any more output? */
+    private boolean finished;
+
     /**
      * Create a new CommandOutputBuffer that will output to the given UserSocket.
      *
@@ -55,7 +72,65 @@ public class CommandOutputBuffer {
      * @param args The args for the format string
      */
     public void addBotMessage(final String data, final Object... args) {
-        messages.add(args.length == 0 ? data : String.format(data, args));
+        if (sink == null) {
+            messages.add(args.length == 0 ? data : String.format(data, args));
+        } else if (!finished) {
+            finished = !sink.accept(args.length == 0 ? data : String.format(data, args));
+        }
+    }
+
+    /**
+     * Check if any further output will be ignored. Commands that produce a
+     * lot of output can use this to stop early.
+     *
+     * @return True if no more output is wanted.
+     */
+    public boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * Get a sink that sends output to the user in chunks. This should be at
+     * the end of any chain of sinks passed to {@link #stream(CommandOutputSink)}.
+     *
+     * @return Sink that sends output to the user.
+     */
+    public CommandOutputSink getUserSink() {
+        if (userSink == null) {
+            userSink = new UserSink();
+        }
+        return userSink;
+    }
+
+    /**
+     * Stream output through the given sink from now on, rather than buffering
+     * it. Any messages that have already been buffered are passed on first.
+     *
+     * @param newSink Sink to stream output to, this should end with
+     *                {@link #getUserSink()}.
+     */
+    public void stream(final CommandOutputSink newSink) {
+        sink = newSink;
+        finished = false;
+        for (String message : messages) {
+            if (!sink.accept(message)) {
+                finished = true;
+                break;
+            }
+        }
+        messages.clear();
+    }
+
+    /**
+     * If output is being streamed, skip any filters and send further output
+     * straight to the user.
+     * Output that filters are holding on to is discarded.
+     */
+    public void skipFilters() {
+        if (sink != null) {
+            sink = getUserSink();
+            finished = false;
+        }
     }
 
     /**
@@ -86,9 +161,48 @@ public class CommandOutputBuffer {
 
     /**
      * Send the output to the user.
+     *
+     * If output is being streamed, this tells the sinks that there is no more
+     * output so that they send anything they are still holding on to.
      */
     public void send() {
-        messages.forEach(m -> user.sendBotMessage("%s", m));
+        if (sink == null) {
+            messages.forEach(m -> user.sendBotMessage("%s", m));
+        } else {
+            sink.finish();
+            sink = null;
+            finished = false;
+        }
+    }
+
+    /**
+     * Sink that sends output to the user in chunks of up to CHUNK_SIZE lines.
+     */
+    private class UserSink implements CommandOutputSink {
+        /** Lines waiting to be sent. */
+        private final List<String> pending = new ArrayList<>(CHUNK_SIZE);
+
+        @Override
+        public boolean accept(final String line) {
+            pending.add(line);
+            if (pending.size() >= CHUNK_SIZE) {
+                flush();
+            }
+            return true;
+        }
+
+        @Override
+        public void finish() {
+            flush();
+        }
+
+        /** Send any pending lines to the user. */
+        private void flush() {
+            if (!pending.isEmpty()) {
+                user.sendBotMessages(pending);
+                pending.clear();
+            }
+        }
     }
 
 }
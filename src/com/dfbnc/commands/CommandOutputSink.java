@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2006-2017 DFBnc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dfbnc.commands;
+
+/**
+ * Receives command output one line at a time, as it is produced.
+ *
+ * Sinks are chained together to stream output through filters and on to the
+ * user, so that filters don't need to wait for all the output before acting
+ * on it, and can say when they don't want any more.
+ */
+public interface CommandOutputSink {
+
+    /**
+     * Accept a line of output.
+     *
+     * @param line Line of output
+     * @return True if more output is wanted, false if any further output will
+     *         be ignored.
+     */
+    boolean accept(final String line);
+
+    /**
+     * Called once there is no more output, to allow any held lines to be
+     * passed on.
+     */
+    void finish();
+}
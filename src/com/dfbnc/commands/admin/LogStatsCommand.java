@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2006-2017 DFBnc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.dfbnc.commands.admin;
+
+import com.dfbnc.DFBnc;
+import com.dfbnc.commands.AdminCommand;
+import com.dfbnc.commands.CommandManager;
+import com.dfbnc.commands.CommandOutputBuffer;
+import com.dfbnc.servers.logging.LogWriter;
+import com.dfbnc.sockets.UserSocket;
+
+/**
+ * This file represents the 'LogStats' command
+ */
+public class LogStatsCommand extends AdminCommand {
+    /**
+     * Handle a LogStats command.
+     *
+     * @param user the UserSocket that performed this command
+     * @param params Params for command (param 0 is the command name)
+     * @param output CommandOutputBuffer where output from this command should go.
+     */
+    @Override
+    public void handle(final UserSocket user, final String[] params, final CommandOutputBuffer output) {
+        final LogWriter logWriter = DFBnc.getLogWriter();
+        if (logWriter == null) {
+            output.addBotMessage("Server-side logging is not running.");
+            return;
+        }
+
+        output.addBotMessage("Server-side logging statistics:");
+        output.addBotMessage("    Queued lines: %d", logWriter.getQueueSize());
+        output.addBotMessage("    Lines written: %d", logWriter.getLinesWritten());
+        output.addBotMessage("    Lines dropped: %d", logWriter.getLinesDropped());
+        output.addBotMessage("    Bytes written: %d", logWriter.getBytesWritten());
+        output.addBotMessage("    Open files: %d (max %d)", logWriter.getOpenFileCount(), logWriter.getMaxOpenFiles());
+        output.addBotMessage("    Files opened: %d", logWriter.getFilesOpened());
+        output.addBotMessage("    Files closed to open others: %d", logWriter.getFilesEvicted());
+        output.addBotMessage("    Files closed when idle: %d", logWriter.getFilesIdleClosed());
+    }
+
+    /**
+     * What does this Command handle.
+     *
+     * @return String[] with the names of the tokens we handle.
+     */
+    @Override
+    public String[] handles() {
+        return new String[]{"logstats"};
+    }
+
+    @Override
+    public boolean allowBackground() {
+        // Only reports information.
+        return true;
+    }
+
+    /**
+     * Create a new instance of the Command Object
+     *
+     * @param manager CommandManager that is in charge of this Command
+     */
+    public LogStatsCommand (final CommandManager manager) { super(manager); }
+
+    /**
+     * Get a description of what this command does
+     *
+     * @param command The command to describe (incase one Command does multiple
+     *                things under different names)
+     * @return A description of what this command does
+     */
+    @Override
+    public String getDescription(final String command) {
+        return "This command will show statistics for server-side logging.";
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2006-2017 DFBnc Developers
+ *
+ * Where no other license is explicitly given or mentioned in the file, all files
+ * in this project are licensed using the following license.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dfbnc.commands.filters;
+
+import com.dfbnc.commands.CommandOutputBuffer;
+import com.dfbnc.commands.CommandOutputSink;
+import java.util.List;
+
+/**
+ * Sink that holds on to all output and then runs a filter against it, for
+ * filters that don't provide their own sink.
+ */
+class BufferedFilterSink implements CommandOutputSink {
+
+    /** Filter to run. */
+    private final CommandOutputFilter filter;
+
+    /** Parameters for the filter. */
+    private final String[] params;
+
+    /** Sink to pass filtered output on to. */
+    private final CommandOutputSink next;
+
+    /** Output held until we are finished. */
+    private final CommandOutputBuffer buffer = new CommandOutputBuffer(null);
+
+    /**
+     * Create a new BufferedFilterSink.
+     *
+     * @param filter Filter to run.
+     * @param params Parameters for the filter.
+     * @param next Sink to pass filtered output on to.
+     */
+    BufferedFilterSink(final CommandOutputFilter filter, final String[] params, final CommandOutputSink next) {
+        this.filter = filter;
+        this.params = params;
+        this.next = next;
+    }
+
+    @Override
+    public boolean accept(final String line) {
+        buffer.addBotMessage("%s", line);
+        return true;
+    }
+
+    @Override
+    public void finish() {
+        final List<String> oldMessages = buffer.getMessages();
+        try {
+            filter.runFilter(params, buffer);
+        } catch (final CommandOutputFilterException ex) {
+            buffer.setMessages(oldMessages);
+            buffer.addBotMessage("--------------------------------------");
+            buffer.addBotMessage("Error with filter: %s", ex.getMessage());
+        }
+
+        for (String message : buffer.getMessages()) {
+            if (!next.accept(message)) {
+                break;
+            }
+        }
+        next.finish();
+    }
+}
@@ -26,6 +26,7 @@
 package com.dfbnc.commands.filters;
 
 import com.dfbnc.commands.CommandOutputBuffer;
+import com.dfbnc.commands.CommandOutputSink;
 
 /**
  *
@@ -43,4 +44,21 @@ public interface CommandOutputFilter {
      *         the output.
      */
     public void runFilter(final String[] params, final CommandOutputBuffer output) throws CommandOutputFilterException;
+
+    /**
+     * Get a sink that filters command output as it is produced, and passes
+     * the result on to the next sink.
+     *
+     * By default this holds on to all the output until it is finished, and
+     * then uses {@link #runFilter(String[], CommandOutputBuffer)}. Filters
+     * that can act on each line as it arrives should override this.
+     *
+     * @param params Parameters for the filter.
+     * @param next Sink to pass filtered output on to.
+     * @return Sink for this filter.
+     * @throws CommandOutputFilterException if the parameters are not valid.
+     */
+    public default CommandOutputSink getSink(final String[] params, final CommandOutputSink next) throws CommandOutputFilterException {
+        return new BufferedFilterSink(this, params, next);
+    }
 }
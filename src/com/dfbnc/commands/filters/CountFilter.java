@@ -26,6 +26,7 @@
 package com.dfbnc.commands.filters;
 
 import com.dfbnc.commands.CommandOutputBuffer;
+import com.dfbnc.commands.CommandOutputSink;
 import java.util.Arrays;
 
 
@@ -39,4 +40,24 @@ public class CountFilter implements CommandOutputFilter {
         output.setMessages(Arrays.asList(Integer.toString(output.getMessages().size())));
     }
 
+    @Override
+    public CommandOutputSink getSink(final String[] params, final CommandOutputSink next) throws CommandOutputFilterException {
+        return new CommandOutputSink() {
+            /** Number of lines seen so far. */
+            private int count = 0;
+
+            @Override
+            public boolean accept(final String line) {
+                count++;
+                return true;
+            }
+
+            @Override
+            public void finish() {
+                next.accept(Integer.toString(count));
+                next.finish();
+            }
+        };
+    }
+
 }
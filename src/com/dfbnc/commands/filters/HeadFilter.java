@@ -26,6 +26,7 @@
 package com.dfbnc.commands.filters;
 
 import com.dfbnc.commands.CommandOutputBuffer;
+import com.dfbnc.commands.CommandOutputSink;
 import java.util.List;
 
 
@@ -47,4 +48,36 @@ public class HeadFilter implements CommandOutputFilter {
         }
     }
 
+    @Override
+    public CommandOutputSink getSink(final String[] params, final CommandOutputSink next) throws CommandOutputFilterException {
+        final int wanted;
+        try {
+            wanted = Integer.parseInt(params.length == 0 ? "10" : params[0]);
+        } catch (final NumberFormatException nfe) {
+            throw new CommandOutputFilterException("Invalid Number: " + params[0], nfe);
+        }
+        if (wanted < 0) {
+            return next;
+        }
+
+        return new CommandOutputSink() {
+            /** Number of lines still wanted. */
+            private int remaining = wanted;
+
+            @Override
+            public boolean accept(final String line) {
+                if (remaining <= 0) {
+                    return false;
+                }
+                remaining--;
+                return next.accept(line) && remaining > 0;
+            }
+
+            @Override
+            public void finish() {
+                next.finish();
+            }
+        };
+    }
+
 }
@@ -25,7 +25,7 @@
 package com.dfbnc.commands.filters;
 
 import com.dfbnc.commands.CommandOutputBuffer;
-import com.dfbnc.util.Util;
+import com.dfbnc.commands.CommandOutputSink;
 
 /**
  * Filter that excludes all messages that do not match the parameters (i.e., includes only those matching).
@@ -34,7 +34,12 @@ public class IncludeFilter implements CommandOutputFilter {
 
     @Override
     public void runFilter(final String[] params, final CommandOutputBuffer output) throws CommandOutputFilterException {
-        output.removeMessagesIf(s -> !s.toLowerCase().matches(".*" + Util.joinString(params, " ").toLowerCase() + ".*"));
+        output.removeMessagesIf(PredicateFilterSink.matching(params).negate());
+    }
+
+    @Override
+    public CommandOutputSink getSink(final String[] params, final CommandOutputSink next) throws CommandOutputFilterException {
+        return new PredicateFilterSink(PredicateFilterSink.matching(params), next);
     }
 
 }
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2006-2017 DFBnc Developers
+ *
+ * Where no other license is explicitly given or mentioned in the file, all files
+ * in this project are licensed using the following license.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dfbnc.commands.filters;
+
+import com.dfbnc.commands.CommandOutputSink;
+import com.dfbnc.util.Util;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Sink that only passes on lines that match a predicate.
+ */
+class PredicateFilterSink implements CommandOutputSink {
+
+    /** Lines to pass on. */
+    private final Predicate<String> wanted;
+
+    /** Sink to pass filtered output on to. */
+    private final CommandOutputSink next;
+
+    /**
+     * Create a new PredicateFilterSink.
+     *
+     * @param wanted Lines to pass on.
+     * @param next Sink to pass filtered output on to.
+     */
+    PredicateFilterSink(final Predicate<String> wanted, final CommandOutputSink next) {
+        this.wanted = wanted;
+        this.next = next;
+    }
+
+    /**
+     * Get a predicate that (case-insensitively) matches lines containing the
+     * given filter parameters.
+     *
+     * @param params Parameters for the filter.
+     * @return Predicate matching lines that contain the parameters.
+     * @throws CommandOutputFilterException if the parameters are not a valid pattern.
+     */
+    static Predicate<String> matching(final String[] params) throws CommandOutputFilterException {
+        try {
+            final Pattern pattern = Pattern.compile(".*" + Util.joinString(params, " ").toLowerCase() + ".*");
+            return s -> pattern.matcher(s.toLowerCase()).matches();
+        } catch (final PatternSyntaxException pse) {
+            throw new CommandOutputFilterException("Invalid Pattern: " + pse.getDescription(), pse);
+        }
+    }
+
+    @Override
+    public boolean accept(final String line) {
+        return !wanted.test(line) || next.accept(line);
+    }
+
+    @Override
+    public void finish() {
+        next.finish();
+    }
+}
@@ -26,6 +26,9 @@
 package com.dfbnc.commands.filters;
 
 import com.dfbnc.commands.CommandOutputBuffer;
+import com.dfbnc.commands.CommandOutputSink;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.List;
 
 /**
@@ -46,4 +49,43 @@ public class TailFilter implements CommandOutputFilter {
         }
     }
 
+    @Override
+    public CommandOutputSink getSink(final String[] params, final CommandOutputSink next) throws CommandOutputFilterException {
+        final int wanted;
+        try {
+            wanted = Integer.parseInt(params.length == 0 ? "10" : params[0]);
+        } catch (final NumberFormatException nfe) {
+            throw new CommandOutputFilterException("Invalid Number: " + params[0], nfe);
+        }
+        if (wanted < 0) {
+            return next;
+        }
+
+        return new CommandOutputSink() {
+            /** The newest lines seen so far. */
+            private final Deque<String> lines = new ArrayDeque<>(Math.min(wanted, 256));
+
+            @Override
+            public boolean accept(final String line) {
+                if (wanted > 0) {
+                    if (lines.size() == wanted) {
+                        lines.removeFirst();
+                    }
+                    lines.addLast(line);
+                }
+                return true;
+            }
+
+            @Override
+            public void finish() {
+                for (String line : lines) {
+                    if (!next.accept(line)) {
+                        break;
+                    }
+                }
+                next.finish();
+            }
+        };
+    }
+
 }
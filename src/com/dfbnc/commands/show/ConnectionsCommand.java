@@ -97,6 +97,7 @@ public class ConnectionsCommand extends Command {
         int count = 0;
         int matched = 0;
         for (final UserSocket u : UserSocket.getUserSockets()) {
+            if (output.isFinished()) { break; }
             count++;
 
             if (askedParams.contains("account") && user.getAccount().equals(u.getAccount()) == false) { continue; }
@@ -166,6 +167,12 @@ public class ConnectionsCommand extends Command {
         return new String[]{"connections", "*sessions"};
     }
 
+    @Override
+    public boolean allowBackground() {
+        // Only reports information.
+        return true;
+    }
+
     /**
      * Create a new instance of the Command Object
      *
@@ -100,6 +100,12 @@ public class FirstTimeCommand extends Command {
         return new String[]{"firsttime"};
     }
 
+    @Override
+    public boolean allowBackground() {
+        // Only reports information.
+        return true;
+    }
+
     /**
      * Create a new instance of the Command Object
      *
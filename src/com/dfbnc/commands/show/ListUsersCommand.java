@@ -49,6 +49,7 @@ public class ListUsersCommand extends AdminCommand {
         final Collection<Account> accounts = DFBnc.getAccountManager().getAccounts();
         output.addBotMessage("This BNC has %s users: ", accounts.size());
         for (Account account : accounts) {
+            if (output.isFinished()) { break; }
             final StringBuilder sb = new StringBuilder("    ");
 
             if (account.equals(user.getAccount())) { sb.append((char)2); }
@@ -90,6 +91,12 @@ public class ListUsersCommand extends AdminCommand {
         return new String[]{"users",};
     }
 
+    @Override
+    public boolean allowBackground() {
+        // Only reports information.
+        return true;
+    }
+
     @Override
     public String getDescription(String command) {
         return "Lists the list of known users.";
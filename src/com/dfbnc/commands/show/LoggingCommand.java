@@ -62,6 +62,12 @@ public class LoggingCommand extends AdminCommand {
         return new String[]{"logging", "*logs"};
     }
 
+    @Override
+    public boolean allowBackground() {
+        // Only reports information.
+        return true;
+    }
+
     /**
      * Create a new instance of the Command Object
      *
@@ -104,6 +104,12 @@ public class ShowCommandsCommand extends Command {
         return new String[]{"commands"};
     }
 
+    @Override
+    public boolean allowBackground() {
+        // Only reports information.
+        return true;
+    }
+
     /**
      * Get a description of what this command does
      *
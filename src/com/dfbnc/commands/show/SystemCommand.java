@@ -112,6 +112,12 @@ public class SystemCommand extends AdminCommand {
         return new String[]{"system", "*tech-support"};
     }
 
+    @Override
+    public boolean allowBackground() {
+        // Only reports information.
+        return true;
+    }
+
     /**
      * Create a new instance of the Command Object
      *
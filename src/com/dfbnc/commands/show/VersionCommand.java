@@ -69,6 +69,12 @@ public class VersionCommand extends Command {
         return new String[]{"version"};
     }
 
+    @Override
+    public boolean allowBackground() {
+        // Only reports information.
+        return true;
+    }
+
     /**
      * Create a new instance of the Command Object
      *
@@ -91,6 +91,12 @@ public class HelpCommand extends Command {
         return new String[]{"help"};
     }
 
+    @Override
+    public boolean allowBackground() {
+        // Only reports information.
+        return true;
+    }
+
     /**
      * Get a description of what this command does
      *
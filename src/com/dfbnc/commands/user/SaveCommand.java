@@ -45,6 +45,7 @@ public class SaveCommand extends Command {
     public void handle(final UserSocket user, final String[] params, final CommandOutputBuffer output) {
         output.addBotMessage("Saving config files...");
         DFBnc.getAccountManager().saveAccounts();
+        DFBnc.getConfigWriter().flush();
         output.addBotMessage("Done.");
     }
 
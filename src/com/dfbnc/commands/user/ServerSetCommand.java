@@ -54,12 +54,16 @@ public class ServerSetCommand extends AbstractSetCommand {
         validParams.put("reporterrors", new ParamInfo("Report errors from ConnectionHandlers to connected users.", ParamType.BOOL, false));
         validParams.put("autoconnect", new ParamInfo("Auto connect on startup.", ParamType.BOOL, false));
         validParams.put("backbuffer", new ParamInfo("Number of lines to store as backbuffer in each channel (0 to disable).", ParamType.INT, true));
+        validParams.put("backbufferstore", new ParamInfo("Where to store backbuffers, 'memory' or 'disk' (applies to newly joined channels).", ParamType.STRING, false));
         validParams.put("backbuffertimeout", new ParamInfo("How long in seconds to permit messages to be stored in the backbuffer (0 to disable).", ParamType.INT, true));
         validParams.put("privatebackbuffer", new ParamInfo("Number of lines to store as backbuffer for private messages (0 to disable).", ParamType.INT, true));
         validParams.put("privatebackbuffertimeout", new ParamInfo("How long in seconds to permit messages to be stored in the private message backbuffer (0 to disable).", ParamType.INT, true));
         validParams.put("privatebackbuffertimestamp", new ParamInfo("Force timestamp prepends on private message backbuffers?", ParamType.BOOL, true));
         validParams.put("userdisconnect", new ParamInfo("Disconnect user if the server disconnects us.", ParamType.BOOL, false));
         validParams.put("logging", new ParamInfo("Enable server-side logging of events.", ParamType.BOOL, false));
+        validParams.put("logrotate", new ParamInfo("Keep server-side logs in a directory per day, and compress each day once it is over (applies after reconnecting).", ParamType.BOOL, false));
+        validParams.put("logretention", new ParamInfo("How many days of rotated server-side logs to keep (0 to keep them forever).", ParamType.INT, false));
+        validParams.put("logdurability", new ParamInfo("When to write server-side logs to disk, 'buffered', 'flush' (after every line) or 'sync' (also wait for the disk).", ParamType.STRING, false));
     }
 
     /**
@@ -127,6 +127,13 @@ public class ShowCommand extends Command {
         return new String[]{"show", "*showcommands", "*listusers", "*lu", "*version", "*firsttime", "*ft"};
     }
 
+    @Override
+    public boolean allowBackground() {
+        // All of the show commands only report information (and so all
+        // allow being run in the background themselves).
+        return true;
+    }
+
     /**
      * Create a new instance of the Command Object
      *
@@ -71,6 +71,29 @@ public interface Config {
      */
     public String getOption(final String domain, final String option, Validator<String> validator);
 
+    /**
+     * Retrieves the first value for the specified option, without throwing an
+     * exception if it is not set.
+     *
+     * @param domain The domain of the option
+     * @param option The name of the option
+     * <p/>
+     * @return The value of the option, or null if no matching values exist
+     */
+    public String findOption(final String domain, final String option);
+
+    /**
+     * Retrieves the first value for the specified option that matches the
+     * specified validator, without throwing an exception if it is not set.
+     *
+     * @param domain The domain of the option
+     * @param option The name of the option
+     * @param validator The validator to use to check legal values
+     * <p/>
+     * @return The value of the option, or null if no matching values exist
+     */
+    public String findOption(final String domain, final String option, Validator<String> validator);
+
     /**
      * Sets the specified option in this configuration to the specified value.
      *
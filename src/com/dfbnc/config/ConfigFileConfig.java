@@ -28,8 +28,14 @@ import com.dmdirc.util.validators.Validator;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
+import uk.org.dataforce.libs.logger.Logger;
 
 /**
  * Single layer configuration
@@ -41,6 +47,29 @@ public class ConfigFileConfig extends ConfigImpl {
      */
     private final ConfigFile config;
 
+    /**
+     * Path the config is saved to, or null if it can't be saved.
+     */
+    private final Path path;
+
+    /**
+     * Writer used to save configs in the background, or null to save them
+     * straight away.
+     */
+    private static volatile ConfigWriter writer;
+
+    /**
+     * Have there been changes since the config was last written? Guarded by
+     * this.
+     */
+    private boolean dirty;
+
+    /**
+     * Lock held while writing, so that the same file is not written by two
+     * threads at once.
+     */
+    private final Object writeLock = new Object();
+
     /**
      * Creates a new configuration file, creating the file is needed.
      *
@@ -58,7 +87,8 @@ public class ConfigFileConfig extends ConfigImpl {
             }
          }
 
-        this.config = new ConfigFile(file.toPath());
+        this.path = file.toPath();
+        this.config = new ConfigFile(path);
 
         init();
     }
@@ -70,48 +100,42 @@ public class ConfigFileConfig extends ConfigImpl {
      */
     public ConfigFileConfig(final InputStream stream) throws IOException, InvalidConfigFileException {
         super();
+        this.path = null;
         this.config = new ConfigFile(stream);
 
         init();
     }
 
     @Override
-    public String getOption(final String domain, final String option, final Validator<String> validator) {
-        String value = null;
-        try {
-            value = config.getKeyDomain(domain).get(option);
-        } catch (final Exception e) { /** Option not found in this config. */ }
-
-        if (validator.validate(value).isFailure()) {
-            value = null;
-        }
-
-        if (value == null) {
-            throw new NullPointerException("No such config option: " + domain + "." + option);
-        }
+    public String findOption(final String domain, final String option, final Validator<String> validator) {
+        final String value = config.hasDomain(domain) ? config.getKeyDomain(domain).get(option) : null;
 
-        return value;
+        return value != null && !validator.validate(value).isFailure() ? value : null;
     }
 
     @Override
     public void setOption(final String domain, final String option, final String value) {
-        config.getKeyDomain(domain).put(option, value);
+        synchronized (this) {
+            config.getKeyDomain(domain).put(option, value);
+            dirty = true;
+        }
 
         callListeners(domain, option);
     }
 
     @Override
     public void unsetOption(final String domain, final String option) {
-        config.getKeyDomain(domain).remove(option);
+        synchronized (this) {
+            config.getKeyDomain(domain).remove(option);
+            dirty = true;
+        }
 
         callListeners(domain, option);
     }
 
     @Override
     public boolean hasOption(final String domain, final String option, final Validator<String> validator) {
-        String value = config.hasDomain(domain) ? config.getKeyDomain(domain).get(option) : null;
-
-        return value != null && !validator.validate(value).isFailure();
+        return findOption(domain, option, validator) != null;
     }
 
      @Override
@@ -124,12 +148,70 @@ public class ConfigFileConfig extends ConfigImpl {
         return config.getKeyDomains().keySet();
     }
 
+    /**
+     * Set the writer used to save configs in the background.
+     *
+     * @param newWriter Writer to use, or null to save configs straight away.
+     */
+    public static void setWriter(final ConfigWriter newWriter) {
+        writer = newWriter;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>If a {@link ConfigWriter} has been set then the config is written by
+     * that in the background, otherwise it is written straight away. Configs
+     * without changes are not written.
+     */
     @Override
     public void save() {
-        try {
-            config.write();
-        } catch (IOException ex) {
-            //Oh shit.
+        final ConfigWriter currentWriter = writer;
+        if (currentWriter == null) {
+            write();
+        } else {
+            currentWriter.queue(this);
+        }
+    }
+
+    /**
+     * Write the config to disk if it has changed.
+     *
+     * The config is written to a temporary file which then replaces the real
+     * one, so that a crash part way through writing can't leave a truncated
+     * config behind.
+     *
+     * @return False if there was an error writing the config, else true.
+     */
+    boolean write() {
+        if (path == null) {
+            return true;
+        }
+
+        synchronized (writeLock) {
+            final Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+            final ConfigFile copy = new ConfigFile(temp);
+
+            synchronized (this) {
+                if (!dirty) {
+                    return true;
+                }
+                config.getKeyDomains().forEach((domain, values) -> copy.addDomain(domain, new HashMap<>(values)));
+                config.getFlatDomains().forEach((domain, values) -> copy.addDomain(domain, new ArrayList<>(values)));
+                dirty = false;
+            }
+
+            try {
+                copy.write();
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                return true;
+            } catch (final IOException | RuntimeException ex) {
+                Logger.error("Unable to save config file " + path + ": " + ex.getMessage());
+                synchronized (this) {
+                    dirty = true;
+                }
+                return false;
+            }
         }
     }
 
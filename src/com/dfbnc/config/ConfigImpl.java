@@ -129,6 +129,22 @@ public abstract class ConfigImpl implements Config {
         return getOption(domain, option, permissiveValidator);
     }
 
+    @Override
+    public String getOption(final String domain, final String option, final Validator<String> validator) {
+        final String value = findOption(domain, option, validator);
+
+        if (value == null) {
+            throw new NullPointerException("No such config option: " + domain + "." + option);
+        }
+
+        return value;
+    }
+
+    @Override
+    public String findOption(final String domain, final String option) {
+        return findOption(domain, option, permissiveValidator);
+    }
+
     @Override
     public boolean hasOption(final String domain, final String option) {
         return hasOption(domain, option, permissiveValidator);
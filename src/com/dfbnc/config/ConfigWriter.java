@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2006-2017 DFBnc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.dfbnc.config;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Saves configs to disk on a background thread.
+ *
+ * Configs that are saved are remembered, and written a short time later.
+ * Saving the same config several times before then only writes it once, and
+ * configs that have not changed since they were last written are skipped.
+ */
+public class ConfigWriter {
+
+    /** Configs waiting to be written. Guarded by this. */
+    private final Set<ConfigFileConfig> pending = new LinkedHashSet<>();
+    /** Executor used to write configs. */
+    private final ScheduledThreadPoolExecutor executor;
+    /** How long (in ms) to wait before writing a config. */
+    private final long delay;
+    /** Is a write scheduled? Guarded by this. */
+    private boolean scheduled;
+    /** Are we still writing in the background? */
+    private volatile boolean running = true;
+    /** Number of times a config has been queued. */
+    private final AtomicLong saveRequests = new AtomicLong();
+    /** Number of times a config has been written. */
+    private final AtomicLong configsWritten = new AtomicLong();
+    /** Number of times writing a config has failed. */
+    private final AtomicLong writeErrors = new AtomicLong();
+
+    /**
+     * Create a new ConfigWriter.
+     *
+     * @param delay How long (in ms) to wait before writing a config
+     */
+    public ConfigWriter(final long delay) {
+        this.delay = Math.max(0, delay);
+        executor = new ScheduledThreadPoolExecutor(1, r -> {
+            final Thread thread = new Thread(r, "Config Writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Anything still waiting at shutdown is written by shutdown() itself.
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    }
+
+    /**
+     * Queue a config to be written.
+     *
+     * Once the writer has been shut down, configs are written straight away
+     * instead.
+     *
+     * @param config Config to write
+     */
+    public void queue(final ConfigFileConfig config) {
+        saveRequests.incrementAndGet();
+        synchronized (this) {
+            if (running) {
+                pending.add(config);
+                if (!scheduled) {
+                    try {
+                        executor.schedule(this::flush, delay, TimeUnit.MILLISECONDS);
+                        scheduled = true;
+                    } catch (final RejectedExecutionException ex) {
+                        // Shutting down, flush() will deal with it.
+                    }
+                }
+                return;
+            }
+        }
+
+        write(config);
+    }
+
+    /**
+     * Write all the queued configs now, on this thread.
+     */
+    public void flush() {
+        final List<ConfigFileConfig> configs;
+        synchronized (this) {
+            configs = new ArrayList<>(pending);
+            pending.clear();
+            scheduled = false;
+        }
+
+        configs.forEach(this::write);
+    }
+
+    /**
+     * Write a single config.
+     *
+     * @param config Config to write
+     */
+    private void write(final ConfigFileConfig config) {
+        if (config.write()) {
+            configsWritten.incrementAndGet();
+        } else {
+            writeErrors.incrementAndGet();
+        }
+    }
+
+    /**
+     * Get the number of configs waiting to be written.
+     *
+     * @return Number of queued configs.
+     */
+    public synchronized int getQueueSize() {
+        return pending.size();
+    }
+
+    /**
+     * Get the number of times a config has been queued to be written.
+     *
+     * @return Number of save requests.
+     */
+    public long getSaveRequests() {
+        return saveRequests.get();
+    }
+
+    /**
+     * Get the number of times a config has been written.
+     *
+     * This includes configs that were skipped because they had not changed.
+     *
+     * @return Number of configs written.
+     */
+    public long getConfigsWritten() {
+        return configsWritten.get();
+    }
+
+    /**
+     * Get the number of times writing a config has failed.
+     *
+     * @return Number of errors.
+     */
+    public long getWriteErrors() {
+        return writeErrors.get();
+    }
+
+    /**
+     * Stop writing in the background, and write everything that is queued.
+     * Any configs saved after this are written straight away.
+     */
+    public void shutdown() {
+        synchronized (this) {
+            running = false;
+        }
+        executor.shutdown();
+        try {
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+}
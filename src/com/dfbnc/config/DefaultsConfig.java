@@ -23,15 +23,33 @@
 package com.dfbnc.config;
 
 import com.dmdirc.util.io.InvalidConfigFileException;
+import com.dmdirc.util.validators.PermissiveValidator;
 import com.dmdirc.util.validators.Validator;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
- * Single layer configuration
+ * Configuration that falls back to another config for options it doesn't have.
+ *
+ * Options looked up without a validator are remembered once resolved
+ * (including options that aren't set anywhere), so a chain of these only has
+ * to be walked the first time. The remembered values are thrown away when
+ * either layer reports that the option has changed.
+ *
+ * When one DefaultsConfig falls back to another, the parent only holds a weak
+ * reference to the child, and throws away the child's remembered values
+ * before any of its own listeners are called. Listeners on the parent can
+ * therefore read the new value through the child, and children that are no
+ * longer used can be garbage collected.
  */
-public class DefaultsConfig extends ConfigImpl {
+public class DefaultsConfig extends ConfigImpl implements ConfigChangeListener {
 
     /**
      * User level configuration file, overrides defaults.
@@ -41,6 +59,14 @@ public class DefaultsConfig extends ConfigImpl {
      * System level configuration file used for defaults.
      */
     private final Config defaults;
+    /**
+     * Resolved values of options, by domain and name.
+     */
+    private final Map<String, Optional<String>> resolved = new ConcurrentHashMap<>();
+    /**
+     * DefaultsConfigs that fall back to this one.
+     */
+    private final Set<DefaultsConfig> children = Collections.newSetFromMap(new WeakHashMap<>());
 
     /**
      * Creates a new configuration file, creating the file is needed.
@@ -55,31 +81,90 @@ public class DefaultsConfig extends ConfigImpl {
         }
 
         init();
+
+        watch(config);
+        watch(defaults);
     }
 
-    @Override
-    public String getOption(final String domain, final String option, final Validator<String> validator) {
-        String value = null;
+    /**
+     * Make sure we hear about changes to one of our layers.
+     *
+     * @param layer Config to watch
+     */
+    private void watch(final Config layer) {
+        if (layer instanceof DefaultsConfig) {
+            ((DefaultsConfig) layer).addChild(this);
+            return;
+        }
+
         try {
-            value = config.getOption(domain, option, validator);
-        } catch (final NullPointerException npe) { }
+            layer.addChangeListener(this);
+        } catch (final UnsupportedOperationException uoe) {
+            // Read only configs never change.
+        }
+    }
+
+    /**
+     * Add a DefaultsConfig that falls back to this one.
+     *
+     * @param child Config to invalidate when options here change
+     */
+    private void addChild(final DefaultsConfig child) {
+        synchronized (children) {
+            children.add(child);
+        }
+    }
+
+    /**
+     * Throw away the remembered value of an option, here and in any
+     * DefaultsConfigs that fall back to this one.
+     *
+     * @param domain The domain of the option
+     * @param option The name of the option
+     */
+    private void invalidate(final String domain, final String option) {
+        resolved.remove(domain + "." + option);
 
-        if (value == null) {
-            try {
-                value = defaults.getOption(domain, option, validator);
-            } catch (final NullPointerException npe) { }
+        final List<DefaultsConfig> current;
+        synchronized (children) {
+            current = new ArrayList<>(children);
         }
+        current.forEach(child -> child.invalidate(domain, option));
+    }
 
-        if (value == null) {
-            throw new NullPointerException("No such config option: " + domain + "." + option);
+    @Override
+    public String findOption(final String domain, final String option, final Validator<String> validator) {
+        if (validator instanceof PermissiveValidator) {
+            return resolved.computeIfAbsent(domain + "." + option,
+                    k -> Optional.ofNullable(resolveOption(domain, option, validator))).orElse(null);
         }
 
-        return value;
+        return resolveOption(domain, option, validator);
+    }
+
+    /**
+     * Look up an option in the config, and then in the defaults.
+     *
+     * @param domain The domain of the option
+     * @param option The name of the option
+     * @param validator The validator to use to check legal values
+     * @return The value of the option, or null if no matching values exist
+     */
+    private String resolveOption(final String domain, final String option, final Validator<String> validator) {
+        final String value = config.findOption(domain, option, validator);
+
+        return value == null ? defaults.findOption(domain, option, validator) : value;
+    }
+
+    @Override
+    public void configChanged(final Config changed, final String domain, final String option) {
+        invalidate(domain, option);
     }
 
     @Override
     public void setOption(final String domain, final String option, final String value) {
         config.setOption(domain, option, value);
+        invalidate(domain, option);
 
         callListeners(domain, option);
     }
@@ -87,6 +172,7 @@ public class DefaultsConfig extends ConfigImpl {
     @Override
     public void unsetOption(final String domain, final String option) {
         config.unsetOption(domain, option);
+        invalidate(domain, option);
 
         callListeners(domain, option);
     }
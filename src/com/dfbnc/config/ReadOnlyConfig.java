@@ -44,6 +44,16 @@ public class ReadOnlyConfig implements Config {
         return config.getOption(domain, option, validator);
     }
 
+    @Override
+    public String findOption(final String domain, final String option) {
+        return config.findOption(domain, option);
+    }
+
+    @Override
+    public String findOption(final String domain, final String option, final Validator<String> validator) {
+        return config.findOption(domain, option, validator);
+    }
+
     @Override
     public void setOption(final String domain, final String option, final String value, final Validator<String> validator) {
         throw new UnsupportedOperationException("This config is read only.");
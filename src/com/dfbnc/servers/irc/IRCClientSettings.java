@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2006-2017 DFBnc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.dfbnc.servers.irc;
+
+import com.dfbnc.config.Config;
+import com.dfbnc.util.HighlightMatcher;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.UnaryOperator;
+
+/**
+ * Settings from a sub-client config that are needed for every line.
+ *
+ * These are read and parsed once, rather than looking them up in the config
+ * each time. Settings objects are never changed once created; when the config
+ * changes a new one should be made instead.
+ */
+public class IRCClientSettings {
+
+    /** Should all channels be sent to the client without it joining them? */
+    private final boolean autoburst;
+
+    /** Maximum number of channel backbuffer lines to send. */
+    private final int backbuffer;
+
+    /** Oldest channel backbuffer line to send, in milliseconds, or 0 for no limit. */
+    private final long backbufferTimeout;
+
+    /** Maximum number of private backbuffer lines to send. */
+    private final int privateBackbuffer;
+
+    /** Oldest private backbuffer line to send, in milliseconds, or 0 for no limit. */
+    private final long privateBackbufferTimeout;
+
+    /** Should private backbuffer always have timestamps added to the text? */
+    private final boolean privateBackbufferTimestamp;
+
+    /** Lower case names of allowed channels, or an empty set to allow all. */
+    private final Set<String> channelWhitelist;
+
+    /** Matcher for highlights. */
+    private final HighlightMatcher highlightMatcher;
+
+    /**
+     * Create a new IRCClientSettings.
+     *
+     * @param config Config to read settings from
+     * @param lowerCase Used to lower case channel names
+     */
+    public IRCClientSettings(final Config config, final UnaryOperator<String> lowerCase) {
+        autoburst = config.getOptionBool("user", "autoburst");
+        backbuffer = config.getOptionInt("server", "backbuffer");
+        backbufferTimeout = config.hasOption("server", "backbuffertimeout") ? config.getOptionInt("server", "backbuffertimeout") * 1000L : 0;
+
+        // Without a timeout, all of the private backbuffer is sent.
+        if (config.hasOption("server", "privatebackbuffertimeout")) {
+            privateBackbuffer = config.getOptionInt("server", "privatebackbuffer");
+            privateBackbufferTimeout = config.getOptionInt("server", "privatebackbuffertimeout") * 1000L;
+        } else {
+            privateBackbuffer = Integer.MAX_VALUE;
+            privateBackbufferTimeout = 0;
+        }
+        privateBackbufferTimestamp = config.getOptionBool("server", "privatebackbuffertimestamp");
+
+        if (config.hasOption("irc", "channelwhitelist")) {
+            final Set<String> whitelist = new HashSet<>();
+            for (final String c : config.getOptionList("irc", "channelwhitelist")) {
+                whitelist.add(lowerCase.apply(c));
+            }
+            channelWhitelist = Collections.unmodifiableSet(whitelist);
+        } else {
+            channelWhitelist = Collections.emptySet();
+        }
+
+        highlightMatcher = config.hasOption("irc", "highlight") ? new HighlightMatcher(config.getOptionList("irc", "highlight")) : HighlightMatcher.EMPTY;
+    }
+
+    /**
+     * Should all channels be sent to the client without it joining them?
+     *
+     * @return True if the client is bursty.
+     */
+    public boolean isAutoburst() {
+        return autoburst;
+    }
+
+    /**
+     * Get the maximum number of backbuffer lines to send.
+     *
+     * @param channel True for channel backbuffer, false for private backbuffer
+     * @return Maximum number of lines to send.
+     */
+    public int getBackbufferLimit(final boolean channel) {
+        return channel ? backbuffer : privateBackbuffer;
+    }
+
+    /**
+     * Get how old backbuffer lines can be and still be sent.
+     *
+     * @param channel True for channel backbuffer, false for private backbuffer
+     * @return Maximum age in milliseconds, or 0 for no limit.
+     */
+    public long getBackbufferTimeout(final boolean channel) {
+        return channel ? backbufferTimeout : privateBackbufferTimeout;
+    }
+
+    /**
+     * Should private backbuffer always have timestamps added to the text?
+     *
+     * @return True if private backbuffer should be timestamped.
+     */
+    public boolean isPrivateBackbufferTimestamp() {
+        return privateBackbufferTimestamp;
+    }
+
+    /**
+     * Is the client allowed to interact with the given channel?
+     *
+     * @param lowerChannel Channel name, already lower cased
+     * @return True if the channel is allowed.
+     */
+    public boolean isAllowedChannel(final String lowerChannel) {
+        return channelWhitelist.isEmpty() || channelWhitelist.contains(lowerChannel);
+    }
+
+    /**
+     * Get the matcher for highlights.
+     *
+     * @return Highlight matcher.
+     */
+    public HighlightMatcher getHighlightMatcher() {
+        return highlightMatcher;
+    }
+}
@@ -26,15 +26,17 @@ import com.dfbnc.Account;
 import com.dfbnc.AccountConfigChangeListener;
 import com.dfbnc.ConnectionHandler;
 import com.dfbnc.Consts;
+import com.dfbnc.DFBnc;
 import com.dfbnc.config.Config;
 import com.dfbnc.servers.logging.ServerLogger;
 import com.dfbnc.sockets.DebugFlag;
 import com.dfbnc.sockets.UnableToConnectException;
 import com.dfbnc.sockets.UserSocket;
 import com.dfbnc.sockets.UserSocketWatcher;
+import com.dfbnc.util.Backbuffer;
 import com.dfbnc.util.BackbufferMessage;
-import com.dfbnc.util.IRCLine;
-import com.dfbnc.util.RollingList;
+import com.dfbnc.util.CompactBackbuffer;
+import com.dfbnc.util.MappedBackbuffer;
 import com.dfbnc.util.Util;
 import com.dmdirc.parser.common.AwayState;
 import com.dmdirc.parser.common.ChannelJoinRequest;
@@ -42,6 +44,7 @@ import com.dmdirc.parser.common.ChannelListModeItem;
 import com.dmdirc.parser.common.MyInfo;
 import com.dmdirc.parser.common.ParserError;
 import com.dmdirc.parser.events.ChannelJoinEvent;
+import com.dmdirc.parser.events.ChannelListModeEvent;
 import com.dmdirc.parser.events.ChannelSelfJoinEvent;
 import com.dmdirc.parser.events.ChannelPartEvent;
 import com.dmdirc.parser.events.ChannelPasswordChangedEvent;
@@ -72,6 +75,7 @@ import com.dmdirc.parser.irc.events.IRCDataInEvent;
 import com.dmdirc.parser.irc.outputqueue.OutputQueue;
 import com.dmdirc.parser.irc.outputqueue.PriorityOutputQueue;
 import com.dmdirc.parser.irc.outputqueue.SimpleRateLimitedOutputQueue;
+import java.io.File;
 import java.io.IOException;
 import net.engio.mbassy.listener.Handler;
 import uk.org.dataforce.libs.logger.LogLevel;
@@ -79,9 +83,13 @@ import uk.org.dataforce.libs.logger.Logger;
 
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
@@ -89,9 +97,9 @@ import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
-import java.util.Timer;
-import java.util.TimerTask;
-import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 
@@ -104,6 +112,17 @@ import java.util.stream.Collectors;
  */
 public class IRCConnectionHandler implements ConnectionHandler, UserSocketWatcher, AccountConfigChangeListener {
 
+    /** Format used for server-time tags. */
+    private static final DateTimeFormatter SERVER_TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'").withZone(ZoneOffset.UTC);
+    /** Format used for timestamps appended to backbuffer messages. */
+    private static final DateTimeFormatter BACKBUFFER_TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss z").withZone(ZoneId.systemDefault());
+    /** Number of backbuffer lines to send to a socket at once. */
+    private static final int REPLAY_BATCH_SIZE = 50;
+    /** Seconds to wait before re-processing requeued lines. */
+    private static final int REQUEUE_DELAY = 5;
+    /** Maximum seconds to wait for the list modes of a channel. */
+    private static final int LIST_MODE_TIMEOUT = 30;
+
     /** Account that this IRCConnectionHandler is for. */
     private final Account myAccount;
     /** Server we were supposed to connect to. */
@@ -124,18 +143,44 @@ public class IRCConnectionHandler implements ConnectionHandler, UserSocketWatche
     private final List<RequeueLine> requeueList = new ArrayList<>();
     /** This stores server-sent lines that need to be sent later. */
     private List<IRCDataInEvent> serverRequeueList;
-    /** This timer handles re-processing of items in the requeueList. */
-    private final Timer requeueTimer = new Timer("requeueTimer");
+    /** Pending re-processing of items in the requeueList, if any. */
+    private ScheduledFuture<?> requeueTask;
+    /**
+     * Lines waiting for the list modes of a channel to be retrieved, keyed by
+     * lower case channel name.
+     */
+    private final Map<String, ListModeWaiters> listModeWaiters = new HashMap<>();
     /** This stores a list of user sockets that we want to requeue all lines from and for temporarily. */
     private final List<UserSocket> forceRequeueList = new ArrayList<>();
     /** Private backbuffer list. */
-    private final RollingList<BackbufferMessage> privateBackbufferList;
-    /** This timer handles keeping our nickname when we can't see the client. */
-    private final Timer nickKeepTimer = new Timer("nickKeepTimer");
+    private final Backbuffer privateBackbufferList;
+    /** This task handles keeping our nickname when we can't see the client. */
+    private ScheduledFuture<?> nickKeepTask;
     /** Do we want to attempt to keep the nickname next time the timer fires? */
     private AtomicBoolean skipKeepNick = new AtomicBoolean(false);
-    /** This stores the list of active channels for non-bursty clients. */
-    private final Map<UserSocket,Set<String>> activeChannelList = new HashMap<>();
+    /**
+     * This stores the list of active channels for non-bursty clients.
+     * Channel names are stored lower case, using the parser's case mapping.
+     */
+    private final Map<UserSocket,Set<String>> activeChannelList = new ConcurrentHashMap<>();
+    /**
+     * Settings for each sub-client, built when first needed. The account
+     * config is stored under an empty name.
+     *
+     * This is replaced rather than cleared whenever the config changes, so
+     * that settings being built at the same time can't put an out of date
+     * entry into the new map.
+     */
+    private volatile Map<String,IRCClientSettings> clientSettings = new ConcurrentHashMap<>();
+    /**
+     * Which sockets lines for each channel should be sent to, built when
+     * first needed. Keys are lower case, using the parser's case mapping.
+     *
+     * This is replaced rather than cleared whenever anything that affects
+     * routing changes, so that a route being worked out at the same time
+     * can't put an out of date entry into the new table.
+     */
+    private volatile Map<String,List<UserSocket>> routingTable = new ConcurrentHashMap<>();
     /**
      * Have we already closed this socket?
      * Used to prevent connection errors triggering handlerDisconnected twice.
@@ -154,6 +199,11 @@ public class IRCConnectionHandler implements ConnectionHandler, UserSocketWatche
     private boolean isPartingAll = false;
     /** Has the perform been deferred utnil the first firstAttach? */
     private boolean isPerformDeferred = false;
+    /**
+     * Lock for isPerformDeferred and rememberedChannels, which are changed by
+     * the parser thread and by client bursts on the CommandExecutor.
+     */
+    private final Object performLock = new Object();
 
     /**
      * Create a new IRCConnectionHandler.
@@ -164,7 +214,11 @@ public class IRCConnectionHandler implements ConnectionHandler, UserSocketWatche
     public IRCConnectionHandler(final Account acc, final int serverNum) {
         myAccount = acc;
         myServerNum = serverNum;
-        privateBackbufferList = new RollingList<>(getConfigMaxValue("server", "privatebackbuffer"));
+        if (!isDiskBackbuffer()) {
+            // Remove anything left over from when backbuffers were on disk.
+            deleteStoredBackbuffers();
+        }
+        privateBackbufferList = createBackbuffer("private", getConfigMaxValue("server", "privatebackbuffer"));
     }
 
     @Override
@@ -233,27 +287,24 @@ public class IRCConnectionHandler implements ConnectionHandler, UserSocketWatche
             myAccount.sendBotMessage("Trying to bind to: %s", bindIPv6);
         }
 
-        // Reprocess queued items every 5 seconds.
-        requeueTimer.schedule(new RequeueTimerTask(this), 0, 5000);
+        // Try to keep our nickname every 5 minutes. This is scheduled before
+        // connecting so that it is always there to be cancelled if the
+        // connection fails.
+        final long nickKeepTime = 5;
+        nickKeepTask = DFBnc.getScheduler().scheduleWithFixedDelay(() -> {
+            if (!parserReady || !myAccount.getAccountConfig().getOptionBool("irc", "keepnick") || skipKeepNick.getAndSet(false)) { return; }
+
+            if (!myParser.getLocalClient().getNickname().equalsIgnoreCase(getKeepNick())) {
+                myParser.getLocalClient().setNickname(getKeepNick());
+            }
+        }, nickKeepTime, nickKeepTime, TimeUnit.MINUTES);
+
         // Allow the initial usermode line through to the user
         allowLine(null, "221");
 
         myParser.connect();
         myAccount.addConfigChangeListener(this);
         ((IRCParser)myParser).getControlThread().setName("IRC Parser - " + myAccount.getName() + " - <server>");
-
-        // Try to keep our nickname every 5 minutes.
-        final long nickKeepTime = 5 * 60 * 1000;
-        nickKeepTimer.schedule(new TimerTask() {
-            @Override
-            public void run() {
-                if (!parserReady || !myAccount.getAccountConfig().getOptionBool("irc", "keepnick") || skipKeepNick.getAndSet(false)) { return; }
-
-                if (!myParser.getLocalClient().getNickname().equalsIgnoreCase(getKeepNick())) {
-                    myParser.getLocalClient().setNickname(getKeepNick());
-                }
-            }
-        }, nickKeepTime, nickKeepTime);
     }
 
     /**
@@ -426,9 +477,8 @@ public class IRCConnectionHandler implements ConnectionHandler, UserSocketWatche
     }
 
     /**
-     * End a BATCH output and send any queued lines from the server.
-     * The normal requeue timer will deal with lines that were sent by the
-     * client during the batch period.
+     * End a BATCH output and send any queued lines from the server, then
+     * process any lines that were sent by the client during the batch period.
      *
      * @param user Socket to stop BATCHing for
      * @param batchIdentifier BATCH identifier.
@@ -443,6 +493,7 @@ public class IRCConnectionHandler implements ConnectionHandler, UserSocketWatche
             events.stream().forEach(this::onDataIn);
         }
         forceRequeueList.remove(user);
+        new RequeueTask(this).run();
     }
 
     /**
@@ -476,7 +527,7 @@ public class IRCConnectionHandler implements ConnectionHandler, UserSocketWatche
             // Add the line back into the requeue list to try again later.
             // Subtract 1 from `times` so that lines don't expire due to the
             // user having everything forcibly requeued.
-            requeueList.add(new RequeueLine(user, data, times - 1));
+            requeue(new RequeueLine(user, data, times - 1));
             return;
         }
 
@@ -493,7 +544,7 @@ public class IRCConnectionHandler implements ConnectionHandler, UserSocketWatche
             return;
         }
 
-        if (!user.getClientConfig().getOptionBool("user", "autoburst")) {
+        if (!getClientSettings(user).isAutoburst()) {
             if (line[0].equalsIgnoreCase("join") && !activeAllowedChannel(user, line[channelPos])) {
                 activateChannel(user, line[channelPos]);
                 if (myParser.getChannel(line[channelPos]) != null) {
@@ -540,15 +591,13 @@ public class IRCConnectionHandler implements ConnectionHandler, UserSocketWatche
                                 int itemNumber = 0;
                                 String listName = "";
                                 if (line.length == 3) {
-                                    // If we can't actually answer this, requeue it to process later.
+                                    // If we can't actually answer this, wait until we can.
                                     // This makes the assumption that the callback will actually be fired,
-                                    // which it may not be. Thus we only requeue the line if it hasn't
-                                    // been through here more than 6 times. (This allows 25-30
-                                    // seconds for a reply to our onJoin request for list modes)
-                                    if (!((IRCChannelInfo) channel).hasGotListModes() && times < 6) {
-                                        synchronized (requeueList) {
-                                            requeueList.add(new RequeueLine(user, String.format("%s %s %s", line[0], channelName, line[2]), times));
-                                        }
+                                    // which it may not be. Thus lines are only held for up to
+                                    // LIST_MODE_TIMEOUT seconds, and a line that has already
+                                    // waited is answered with whatever we have.
+                                    if (!((IRCChannelInfo) channel).hasGotListModes() && times < 1) {
+                                        waitForListModes(channel, new RequeueLine(user, String.format("%s %s %s", line[0], channelName, line[2]), times));
                                         continue;
                                     }
                                     // Make sure we don't send the same thing twice. A list is probably overkill for this, but meh
@@ -728,9 +777,62 @@ public class IRCConnectionHandler implements ConnectionHandler, UserSocketWatche
         }
     }
 
+    /**
+     * Add a line to the requeueList, and make sure that it will be processed.
+     *
+     * @param line Line to requeue
+     */
+    private void requeue(final RequeueLine line) {
+        synchronized (requeueList) {
+            requeueList.add(line);
+            if (requeueTask == null && !hasSocketClosed.get()) {
+                requeueTask = DFBnc.getScheduler().schedule(new RequeueTask(this), REQUEUE_DELAY, TimeUnit.SECONDS);
+            }
+        }
+    }
+
+    /**
+     * Hold a line until the list modes for the given channel have been
+     * retrieved, or LIST_MODE_TIMEOUT seconds have passed.
+     *
+     * @param channel Channel to wait for
+     * @param line Line to process once the list modes are known
+     */
+    private void waitForListModes(final ChannelInfo channel, final RequeueLine line) {
+        final String name = myParser.getStringConverter().toLowerCase(channel.getName());
+        final boolean gotListModes;
+        synchronized (listModeWaiters) {
+            final ListModeWaiters waiters = listModeWaiters.computeIfAbsent(name, k -> new ListModeWaiters(
+                    DFBnc.getScheduler().schedule(() -> releaseListModeWaiters(k), LIST_MODE_TIMEOUT, TimeUnit.SECONDS)));
+            waiters.lines.add(line);
+            // The list modes may have arrived since the caller checked, in
+            // which case nothing else is going to release this line.
+            gotListModes = ((IRCChannelInfo) channel).hasGotListModes();
+        }
+        if (gotListModes) {
+            releaseListModeWaiters(name);
+        }
+    }
+
+    /**
+     * Process any lines waiting for the list modes of the given channel.
+     *
+     * @param name Lower case name of the channel
+     */
+    private void releaseListModeWaiters(final String name) {
+        final ListModeWaiters waiters;
+        synchronized (listModeWaiters) {
+            waiters = listModeWaiters.remove(name);
+        }
+        if (waiters != null) {
+            waiters.timeout.cancel(false);
+            waiters.lines.forEach(line -> line.reprocess(this));
+        }
+    }
+
     /**
      * Get the requeueList.
-     * This is used by the requeueTimer, it returns a clone of the requeueList,
+     * This is used by the RequeueTask, it returns a clone of the requeueList,
      * and then empties the requeueList.
      *
      * @return Clone of the requeueList
@@ -740,6 +842,9 @@ public class IRCConnectionHandler implements ConnectionHandler, UserSocketWatche
         synchronized (requeueList) {
             result = new ArrayList<>(requeueList);
             requeueList.clear();
+            // Anything that gets requeued from now on will need to be
+            // processed again.
+            requeueTask = null;
         }
         return result;
     }
@@ -998,6 +1103,7 @@ public class IRCConnectionHandler implements ConnectionHandler, UserSocketWatche
     public void onChannelPart(final ChannelPartEvent event) {
         if (event.getClient().getClient() == myParser.getLocalClient()) {
             deactivateChannel(null, event.getChannel().getName());
+            deleteBackbuffer(getBackbufferList(event.getChannel()));
 
             if (!isPartingAll) {
                 updateStoredChannels();
@@ -1014,6 +1120,7 @@ public class IRCConnectionHandler implements ConnectionHandler, UserSocketWatche
     public void onChannelKick(final ChannelKickEvent event) {
         if (event.getClient().getClient() == myParser.getLocalClient()) {
             deactivateChannel(null, event.getChannel().getName());
+            deleteBackbuffer(getBackbufferList(event.getChannel()));
 
             updateStoredChannels();
         }
@@ -1037,7 +1144,7 @@ public class IRCConnectionHandler implements ConnectionHandler, UserSocketWatche
         allowLine(channel, "332");
         allowLine(channel, "333");
 
-        channel.getMap().put("backbufferList", new RollingList<BackbufferMessage>(getConfigMaxValue("server", "backbuffer")));
+        channel.getMap().put("backbufferList", createBackbuffer(myParser.getStringConverter().toLowerCase(channel.getName()), getConfigMaxValue("server", "backbuffer")));
 
         // Fake a join.
         onChannelJoin(new ChannelJoinEvent(event.getParser(), event.getDate(), channel, channel.getChannelClient(event.getParser().getLocalClient())));
@@ -1049,12 +1156,23 @@ public class IRCConnectionHandler implements ConnectionHandler, UserSocketWatche
      * Store the remembered channels in the account config.
      */
     private void updateStoredChannels() {
-        rememberedChannels.clear();
-        for (final ChannelInfo ci : myParser.getChannels()) {
-            rememberedChannels.add(new ChannelJoinRequest(ci.getName(), ci.getPassword()));
+        final List<String> channels;
+        synchronized (performLock) {
+            rememberedChannels.clear();
+            for (final ChannelInfo ci : myParser.getChannels()) {
+                rememberedChannels.add(new ChannelJoinRequest(ci.getName(), ci.getPassword()));
+            }
+
+            channels = rememberedChannels.stream().map(cjr -> cjr.getName() + " " + cjr.getPassword()).collect(Collectors.toList());
         }
+        final Config config = myAccount.getAccountConfig();
 
-        myAccount.getAccountConfig().setOption("irc", "lastKnownChannels", rememberedChannels.stream().map(cjr -> cjr.getName() + " " + cjr.getPassword()).collect(Collectors.toList()));
+        // This is called for every join and part, but most of them don't
+        // change anything.
+        if (!config.hasOption("irc", "lastKnownChannels") || !config.getOptionList("irc", "lastKnownChannels").equals(channels)) {
+            config.setOption("irc", "lastKnownChannels", channels);
+            config.save();
+        }
     }
 
     /**
@@ -1063,10 +1181,12 @@ public class IRCConnectionHandler implements ConnectionHandler, UserSocketWatche
     private void loadStoredChannels() {
         final List<String> channels = myAccount.getAccountConfig().getOptionList("irc", "lastKnownChannels");
 
-        rememberedChannels.clear();
-        for (final String channel : channels) {
-            final String[] bits = channel.split(" ", 2);
-            rememberedChannels.add(new ChannelJoinRequest(bits[0], (bits.length > 1 ? bits[1] : "")));
+        synchronized (performLock) {
+            rememberedChannels.clear();
+            for (final String channel : channels) {
+                final String[] bits = channel.split(" ", 2);
+                rememberedChannels.add(new ChannelJoinRequest(bits[0], (bits.length > 1 ? bits[1] : "")));
+            }
         }
     }
 
@@ -1074,7 +1194,11 @@ public class IRCConnectionHandler implements ConnectionHandler, UserSocketWatche
      * Join all the remembered channels.
      */
     private void joinRememberedChannels() {
-        myParser.joinChannels(rememberedChannels.toArray(new ChannelJoinRequest[0]));
+        final ChannelJoinRequest[] channels;
+        synchronized (performLock) {
+            channels = rememberedChannels.toArray(new ChannelJoinRequest[0]);
+        }
+        myParser.joinChannels(channels);
     }
 
     @Handler
@@ -1101,12 +1225,15 @@ public class IRCConnectionHandler implements ConnectionHandler, UserSocketWatche
     }
 
     @Override
-    @SuppressWarnings("unchecked")
     public void accountConfigChanged(final Account account, final String subClient, final String domain, final String setting) {
+        // Sub-clients may fall back to the account config, so rebuild them
+        // all.
+        clientSettings = new ConcurrentHashMap<>();
+
         if (domain.equalsIgnoreCase("server") && setting.equalsIgnoreCase("backbuffer")) {
             final int size = getConfigMaxValue("server", "backbuffer");
             for (ChannelInfo channel : myParser.getChannels()) {
-                final RollingList<BackbufferMessage> myList = (RollingList<BackbufferMessage>)channel.getMap().get("backbufferList");
+                final Backbuffer myList = (Backbuffer)channel.getMap().get("backbufferList");
                 myList.setCapacity(size);
             }
         } else if (domain.equalsIgnoreCase("server") && setting.equalsIgnoreCase("privatebackbuffer")) {
@@ -1114,6 +1241,10 @@ public class IRCConnectionHandler implements ConnectionHandler, UserSocketWatche
             privateBackbufferList.setCapacity(size);
         } else if (domain.equalsIgnoreCase("irc") && setting.toLowerCase().startsWith("ratelimit")) {
             setupOutputQueue();
+        } else if (domain.equalsIgnoreCase("irc") && setting.equalsIgnoreCase("channelwhitelist")) {
+            invalidateRoutes();
+        } else if (domain.equalsIgnoreCase("user") && setting.equalsIgnoreCase("autoburst")) {
+            invalidateRoutes();
         }
     }
 
@@ -1123,18 +1254,99 @@ public class IRCConnectionHandler implements ConnectionHandler, UserSocketWatche
      * @param time    The time the message occurred
      * @param message The message that occurred
      */
-    @SuppressWarnings("unchecked")
     private void addBackbufferMessage(final ChannelInfo channel, final long time, final String message) {
         if (channel != null) {
-            final RollingList<BackbufferMessage> myList = (RollingList<BackbufferMessage>)channel.getMap().get("backbufferList");
-            myList.add(new BackbufferMessage(time, message));
+            final Backbuffer myList = (Backbuffer)channel.getMap().get("backbufferList");
+            myList.add(time, message);
         } else {
-            privateBackbufferList.add(new BackbufferMessage(time, message));
+            privateBackbufferList.add(time, message);
+        }
+    }
+
+    /**
+     * Check if backbuffers should be stored on disk.
+     *
+     * @return True if server.backbufferstore is "disk".
+     */
+    private boolean isDiskBackbuffer() {
+        return "disk".equalsIgnoreCase(myAccount.getAccountConfig().getOption("server", "backbufferstore"));
+    }
+
+    /**
+     * Get the directory that on-disk backbuffers are stored in.
+     *
+     * @return Backbuffer directory for this account.
+     */
+    private File getBackbufferDirectory() {
+        return new File(myAccount.getConfigDirectory(), "backbuffer");
+    }
+
+    /**
+     * Delete any on-disk backbuffers for this account.
+     *
+     * The files are kept when the connection closes so that backbuffers
+     * survive reconnects, so this is used to clean them up when backbuffers
+     * are no longer stored on disk. Files for channels that have been left
+     * are deleted when they are left, and the whole directory is deleted
+     * along with the account.
+     */
+    private void deleteStoredBackbuffers() {
+        final File directory = getBackbufferDirectory();
+        if (directory.exists() && !Util.deleteFolder(directory)) {
+            Logger.error("Unable to delete stored backbuffers: " + directory);
+        }
+    }
+
+    /**
+     * Create a new backbuffer, using the store given by server.backbufferstore.
+     *
+     * @param name Name of the backbuffer (lowercase channel name, or "private")
+     * @param capacity Capacity of the backbuffer
+     * @return The new backbuffer
+     */
+    private Backbuffer createBackbuffer(final String name, final int capacity) {
+        if (isDiskBackbuffer()) {
+            // Channel names can contain characters that aren't valid in file
+            // names, so add a hash of the real name to keep files unique.
+            final String fileName = name.replaceAll("[^\\w\\.\\-#&]", "_") + "-" + Util.md5(name).substring(0, 8);
+            try {
+                return new MappedBackbuffer(new File(getBackbufferDirectory(), fileName), capacity);
+            } catch (final IOException ex) {
+                Logger.error("Unable to open backbuffer for " + name + ": " + ex.getMessage());
+            }
+        }
+
+        return new CompactBackbuffer(capacity);
+    }
+
+    /**
+     * Close a backbuffer that is no longer needed.
+     *
+     * @param backbuffer Backbuffer to close
+     */
+    private void closeBackbuffer(final Backbuffer backbuffer) {
+        try {
+            backbuffer.close();
+        } catch (final IOException ex) {
+            Logger.error("Unable to close backbuffer: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Delete a backbuffer for a channel that has been left.
+     *
+     * @param backbuffer Backbuffer to delete
+     */
+    private void deleteBackbuffer(final Backbuffer backbuffer) {
+        try {
+            backbuffer.delete();
+        } catch (final IOException ex) {
+            Logger.error("Unable to delete backbuffer: " + ex.getMessage());
         }
     }
 
     @Override
-    public RollingList<BackbufferMessage> getBackbufferList(final String channel) {
+    public Backbuffer getBackbufferList(final String channel) {
         final ChannelInfo ci = myParser.getChannel(channel);
         return getBackbufferList(ci);
     }
@@ -1145,16 +1357,15 @@ public class IRCConnectionHandler implements ConnectionHandler, UserSocketWatche
      * @param ci ChannelInfo to get backbuffer from
      * @return backbuffer for the channel
      */
-    @SuppressWarnings("unchecked")
-    public RollingList<BackbufferMessage> getBackbufferList(final ChannelInfo ci) {
+    public Backbuffer getBackbufferList(final ChannelInfo ci) {
         if (ci != null) {
-            final RollingList<BackbufferMessage> list = (RollingList<BackbufferMessage>)ci.getMap().get("backbufferList");
+            final Backbuffer list = (Backbuffer)ci.getMap().get("backbufferList");
             if (list != null) {
                 return list;
             }
         }
 
-        return new RollingList<>(0);
+        return new CompactBackbuffer(0);
     }
 
     @Override
@@ -1367,9 +1578,10 @@ public class IRCConnectionHandler implements ConnectionHandler, UserSocketWatche
         }
 
         if (forwardLine) {
-            for (UserSocket socket : myAccount.getUserSockets()) {
-                if (channelName != null && !activeAllowedChannel(socket, channelName)) { continue; }
+            final String line = event.getData();
+            final boolean checkHighlight = channelName != null && bits.length > 3 && event.getAction().equals("PRIVMSG");
 
+            for (UserSocket socket : getRoute(channelName)) {
                 boolean canSendMessage = socket.syncCompleted();
                 if (!socket.syncCompleted()) {
                     // If this is unrelated to a channel, send it on to clients
@@ -1378,9 +1590,9 @@ public class IRCConnectionHandler implements ConnectionHandler, UserSocketWatche
                 }
 
                 if (canSendMessage) {
-                    socket.sendLine(event.getData());
+                    socket.sendLine(line);
 
-                    if (channelName != null && bits.length > 3 && event.getAction().equals("PRIVMSG") && isHighlight(socket, bits[bits.length - 1])) {
+                    if (checkHighlight && isHighlight(socket, bits[bits.length - 1])) {
                         final ClientInfo client = event.getParser().getClient(bits[0]);
                         final String truncatedMessage = bits[bits.length - 1].substring(0, Math.min(bits[bits.length - 1].length(), 200)) + (bits[bits.length - 1].length() > 200 ? "..." : "");
                         socket.sendBotChat(channelName, "PRIVMSG", "<%s> %s (/cc %s)", client.getNickname(), truncatedMessage, socket.getNickname());
@@ -1398,18 +1610,20 @@ public class IRCConnectionHandler implements ConnectionHandler, UserSocketWatche
         List<String> myList = myAccount.getAccountConfig().getOptionList("irc", "perform.connect");
         Logger.debug3("Connected. Handling performs");
 
-        if (myAccount.getAccountConfig().getOptionBool("irc", "partondetach") && myAccount.getActiveClientSockets().isEmpty()) {
-            Logger.debug3("No clients connected and partondetach is true, deferring perform to prevent join/part spam.");
-            isPerformDeferred = true;
-        } else {
-            for (String line : myList) {
-                myParser.sendRawMessage(filterPerformLine(line));
-                Logger.debug3("Sending perform line: " + line);
-            }
+        synchronized (performLock) {
+            if (myAccount.getAccountConfig().getOptionBool("irc", "partondetach") && myAccount.getActiveClientSockets().isEmpty()) {
+                Logger.debug3("No clients connected and partondetach is true, deferring perform to prevent join/part spam.");
+                isPerformDeferred = true;
+            } else {
+                for (String line : myList) {
+                    myParser.sendRawMessage(filterPerformLine(line));
+                    Logger.debug3("Sending perform line: " + line);
+                }
 
-            if (myAccount.getAccountConfig().getOptionBool("irc", "rememberchannels")) {
-                loadStoredChannels();
-                joinRememberedChannels();
+                if (myAccount.getAccountConfig().getOptionBool("irc", "rememberchannels")) {
+                    loadStoredChannels();
+                    joinRememberedChannels();
+                }
             }
         }
         if (myAccount.getActiveClientSockets().isEmpty()) {
@@ -1429,6 +1643,12 @@ public class IRCConnectionHandler implements ConnectionHandler, UserSocketWatche
         if (!checkParser(event)) { return; }
 
         final int numeric = event.getNumeric();
+        if (numeric == 5) {
+            // The server may have changed the case mapping used by the
+            // whitelists.
+            clientSettings = new ConcurrentHashMap<>();
+            invalidateRoutes();
+        }
         if (numeric > 1 && numeric < 6) {
             if (numeric == 5 && !hacked005) {
                 // Add our own 005.
@@ -1462,6 +1682,15 @@ public class IRCConnectionHandler implements ConnectionHandler, UserSocketWatche
         }
     }
 
+    @Handler
+    public void onChannelListMode(final ChannelListModeEvent event) {
+        if (!checkParser(event)) { return; }
+
+        if (((IRCChannelInfo) event.getChannel()).hasGotListModes()) {
+            releaseListModeWaiters(myParser.getStringConverter().toLowerCase(event.getChannel().getName()));
+        }
+    }
+
     @Handler
     public void onSocketClosed(final SocketCloseEvent event) {
         if (!checkParser(event)) { return; }
@@ -1495,8 +1724,20 @@ public class IRCConnectionHandler implements ConnectionHandler, UserSocketWatche
 
     private void handleSocketClosed(final String reason) {
         if (hasSocketClosed.compareAndSet(false, true)) {
-            requeueTimer.cancel();
-            nickKeepTimer.cancel();
+            synchronized (requeueList) {
+                if (requeueTask != null) {
+                    requeueTask.cancel(false);
+                }
+            }
+            synchronized (listModeWaiters) {
+                listModeWaiters.values().forEach(waiters -> waiters.timeout.cancel(false));
+                listModeWaiters.clear();
+            }
+            nickKeepTask.cancel(false);
+            for (ChannelInfo channel : myParser.getChannels()) {
+                closeBackbuffer(getBackbufferList(channel));
+            }
+            closeBackbuffer(privateBackbufferList);
             myAccount.handlerDisconnected(reason);
         }
     }
@@ -1528,6 +1769,7 @@ public class IRCConnectionHandler implements ConnectionHandler, UserSocketWatche
 
     @Override
     public void userConnected(final UserSocket user) {
+        invalidateRoutes();
         Logger.debug2("IRC userConnected: Check for 001: " + parserReady);
         // If the parser has processed a 001, we need to send our own
         if (parserReady) {
@@ -1579,24 +1821,26 @@ public class IRCConnectionHandler implements ConnectionHandler, UserSocketWatche
 
                 final Collection<? extends ChannelInfo> channels = myParser.getChannels();
 
-                new Timer().schedule(new TimerTask() {
+                // The burst can be slow for large backbuffers, so the scheduler
+                // only hands it off to the client's own queue rather than
+                // running it on one of its (few) threads.
+                DFBnc.getScheduler().schedule(() -> user.queueTask(() -> {
+                    if (!user.getSocketWrapper().isConnected()) { return; }
 
-                    @Override
-                    public void run() {
-                        if (!user.getSocketWrapper().isConnected()) { return; }
-
-                        if (user.getClientConfig().getOptionBool("user", "autoburst")) {
-                            for (final ChannelInfo channel : channels) {
-                                sendChannelBurst(user, channel);
-                            }
-                        }
-                        user.setSyncCompleted();
-                        // Immediately process the requeue list.
-                        final List<RequeueLine> list = getRequeueList();
-                        for (RequeueLine line : list) {
-                            line.reprocess(IRCConnectionHandler.this);
+                    if (getClientSettings(user).isAutoburst()) {
+                        for (final ChannelInfo channel : channels) {
+                            sendChannelBurst(user, channel);
                         }
+                    }
+                    user.setSyncCompleted();
+                    // Immediately process the requeue list.
+                    final List<RequeueLine> list = getRequeueList();
+                    for (RequeueLine line : list) {
+                        line.reprocess(IRCConnectionHandler.this);
+                    }
 
+                    // The perform state is also changed by the parser thread.
+                    synchronized (performLock) {
                         if (user.isActiveClient() && myAccount.getActiveClientSockets().size() == 1) {
                             List<String> myList;
 
@@ -1623,7 +1867,7 @@ public class IRCConnectionHandler implements ConnectionHandler, UserSocketWatche
                             }
                         }
                     }
-                }, 1500);
+                }), 1500, TimeUnit.MILLISECONDS);
 
                 sendPrivateBackbuffer(user);
             }
@@ -1715,7 +1959,7 @@ public class IRCConnectionHandler implements ConnectionHandler, UserSocketWatche
      * @param channel Channel to send backbuffer for
      */
     public void sendBackbuffer(final UserSocket user, final ChannelInfo channel) {
-        final RollingList<BackbufferMessage> backbufferList = getBackbufferList(channel);
+        final Backbuffer backbufferList = getBackbufferList(channel);
         sendBackbuffer(user, channel, backbufferList);
     }
 
@@ -1735,46 +1979,51 @@ public class IRCConnectionHandler implements ConnectionHandler, UserSocketWatche
      * @param channel Channel to send backbuffer to
      * @param backbufferList Backbuffer to send
      */
-    private void sendBackbuffer(final UserSocket user, final ChannelInfo channel, final RollingList<BackbufferMessage> backbufferList) {
+    private void sendBackbuffer(final UserSocket user, final ChannelInfo channel, final Backbuffer backbufferList) {
         final String backbufferID = (channel == null) ? "private" : channel.getName();
         final String batchIdentifier = "backbuffer_" + backbufferID + "_" + System.currentTimeMillis();
 
-        // backbufferList may contain more items than this client wants to see.
-        // Trim it to size.
-        final RollingList<BackbufferMessage> backbuffer = backbufferList.clone();
-        if (channel != null) {
-            backbuffer.setCapacity(user.getClientConfig().getOptionInt("server", "backbuffer"));
-        } else if (user.getClientConfig().hasOption("server", "privatebackbuffertimeout")) {
-            backbuffer.setCapacity(user.getClientConfig().getOptionInt("server", "privatebackbuffer"));
-        }
+        // backbufferList may contain more items than this client wants to see,
+        // so only look at the newest ones.
+        final IRCClientSettings settings = getClientSettings(user);
+        final int limit = settings.getBackbufferLimit(channel != null);
 
         boolean firstValid = true;
-        final long timeout;
-        if (channel != null && user.getClientConfig().hasOption("server", "backbuffertimeout")) {
-            timeout = user.getClientConfig().getOptionInt("server", "backbuffertimeout") * 1000;
-        } else if (channel == null && user.getClientConfig().hasOption("server", "privatebackbuffertimeout")) {
-            timeout = user.getClientConfig().getOptionInt("server", "privatebackbuffertimeout") * 1000;
-        } else {
-            timeout = 0;
-        }
+        final long timeout = settings.getBackbufferTimeout(channel != null);
         final long earliestTime = (timeout > 0) ? System.currentTimeMillis() - timeout : 0;
-        final boolean forceTimestamp = (channel == null) && user.getClientConfig().getOptionBool("server", "privatebackbuffertimestamp");
+        final boolean forceTimestamp = (channel == null) && settings.isPrivateBackbufferTimestamp();
 
-        final SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss z");
-        final SimpleDateFormat servertime = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
-        servertime.setTimeZone(TimeZone.getTimeZone("UTC"));
+        // Work out what this client supports once, rather than per-message.
+        final boolean useServerTime = !forceTimestamp && user.getCapabilityState("server-time") == CapabilityState.ENABLED;
+        final boolean useTSIRC = !forceTimestamp && !useServerTime && user.getCapabilityState("dfbnc.com/tsirc") == CapabilityState.ENABLED;
 
-        // TODO: per-client timezones, somehow.
-        // sdf.setTimeZone(TimeZone.getTimeZone("UTC"));
+        // FIXME: This isn't the best way to handle this.
+        //        IRCLine as a whole needs rewriting really at some point.
+        //        But for now this will do to ensure we don't accidentally
+        //        send tags to clients that don't understand them.
+        final boolean allowTags = user.allowTags();
 
-        for (BackbufferMessage message : backbuffer) {
-            final String line;
-            final Map<String,String> messageTags = new HashMap<>();
+        // Tags that are the same for every message.
+        final StringBuilder fixedTags = new StringBuilder();
+        if (allowTags && user.getCapabilityState("batch") == CapabilityState.ENABLED) {
+            fixedTags.append(";batch=").append(batchIdentifier);
+        }
+        if (allowTags && user.getCapabilityState("dfbnc.com/channelhistory") == CapabilityState.ENABLED) {
+            fixedTags.append(";dfbnc.com/channelhistory");
+        }
 
-            if (message.getTime() < earliestTime) {
-                // Message is too old.
-                continue;
-            }
+        // TODO: Allow clients to specify a longer length to save us needing
+        //       to wrap things.
+        final int maxLength = 510;
+
+        // These are reused for every message.
+        final StringBuilder tags = new StringBuilder();
+        final StringBuilder output = new StringBuilder();
+        final List<String> pending = new ArrayList<>(REPLAY_BATCH_SIZE);
+
+        // The view starts at the first message that isn't too old.
+        for (BackbufferMessage message : backbufferList.tail(limit, earliestTime)) {
+            final String line;
 
             if (firstValid) {
                 firstValid = false;
@@ -1786,17 +2035,18 @@ public class IRCConnectionHandler implements ConnectionHandler, UserSocketWatche
                 }
             }
 
-            if (user.getCapabilityState("batch") == CapabilityState.ENABLED) {
-                messageTags.put("batch", batchIdentifier);
-            }
-
-            if (!forceTimestamp && user.getCapabilityState("server-time") == CapabilityState.ENABLED) {
-                messageTags.put("time", servertime.format(message.getTime()));
+            tags.setLength(0);
+            if (useServerTime) {
+                if (allowTags) {
+                    tags.append(";time=");
+                    SERVER_TIME_FORMAT.formatTo(Instant.ofEpochMilli(message.getTime()), tags);
+                }
                 line = message.getMessage();
-            } else if (!forceTimestamp && user.getCapabilityState("dfbnc.com/tsirc") == CapabilityState.ENABLED) {
+            } else if (useTSIRC) {
                 line = "@" + Long.toString(message.getTime()) + "@" + message.getMessage();
             } else {
-                final String date = "    [" + sdf.format(message.getTime()) + "]";
+                // TODO: per-client timezones, somehow.
+                final String date = "    [" + BACKBUFFER_TIME_FORMAT.format(Instant.ofEpochMilli(message.getTime())) + "]";
 
                 // If it's a CTCP (like an action), insert the timestamp before
                 // the trailing 0x01
@@ -1806,23 +2056,16 @@ public class IRCConnectionHandler implements ConnectionHandler, UserSocketWatche
                     line = message.getMessage() + date;
                 }
             }
+            tags.append(fixedTags);
 
-            if (user.getCapabilityState("dfbnc.com/channelhistory") == CapabilityState.ENABLED) {
-                messageTags.put("dfbnc.com/channelhistory", null);
+            output.setLength(0);
+            if (tags.length() > 0) {
+                output.append('@').append(tags, 1, tags.length()).append(' ');
             }
-
-            // FIXME: This isn't the best way to handle this.
-            //        IRCLine as a whole needs rewriting really at some point.
-            //        But for now this will do to ensure we don't accidentally
-            //        send tags to clients that don't understand them.
-            if (!user.allowTags()) { messageTags.clear(); }
-
-            // TODO: Allow clients to specify a longer length to save us needing
-            //       to wrap things.
-            final int maxLength = 510;
+            final int tagsLength = output.length();
 
             if (line.length() <= maxLength) {
-                user.sendLine(new IRCLine(line, messageTags));
+                pending.add(output.append(line).toString());
             } else {
                 // Line is longer than 510...
                 // We need to split it and send it in bits.
@@ -1835,18 +2078,22 @@ public class IRCConnectionHandler implements ConnectionHandler, UserSocketWatche
                 // Now work out the allowed characters per bit.
                 final int allowed = maxLength - startBits.length();
 
-                StringBuilder sendLine = new StringBuilder(startBits);
-
                 for (int i = 0; i < lastBit.length(); i += allowed) {
-                    sendLine.append(lastBit.substring(i, Math.min(i + allowed, lastBit.length())));
-                    user.sendLine(new IRCLine(sendLine.toString(), messageTags));
-                    sendLine = new StringBuilder(startBits);
+                    output.setLength(tagsLength);
+                    output.append(startBits).append(lastBit, i, Math.min(i + allowed, lastBit.length()));
+                    pending.add(output.toString());
                 }
             }
+
+            if (pending.size() >= REPLAY_BATCH_SIZE) {
+                user.sendLines(pending);
+                pending.clear();
+            }
         }
+        user.sendLines(pending);
 
         if (firstValid) {
-            if (backbuffer.isEmpty()) {
+            if (limit <= 0 || backbufferList.isEmpty()) {
                 if (user.getCapabilityState("dfbnc.com/channelhistory") == CapabilityState.ENABLED) {
                     user.sendServerLine("EMPTYHISTORY", channel.getName());
                 } else if (channel != null) {
@@ -1871,6 +2118,9 @@ public class IRCConnectionHandler implements ConnectionHandler, UserSocketWatche
      */
     @Override
     public void userDisconnected(final UserSocket user) {
+        activeChannelList.remove(user);
+        invalidateRoutes();
+
         if (parserReady) {
             if (user.isActiveClient() && myAccount.getActiveClientSockets().isEmpty()) {
                 List<String> myList = myAccount.getAccountConfig().getOptionList("irc", "perform.lastdetach");
@@ -1929,25 +2179,66 @@ public class IRCConnectionHandler implements ConnectionHandler, UserSocketWatche
      */
     @Override
     public boolean activeAllowedChannel(final UserSocket user, final String channel) {
-        if (user.getClientConfig().getOptionBool("user", "autoburst")) {
+        if (getClientSettings(user).isAutoburst()) {
             // Bursty clients are always active, so just check if they
             // are allowed.
             return allowedChannel(user, channel);
         }
 
-        if (activeChannelList.containsKey(user) && !activeChannelList.get(user).isEmpty()) {
-            for (final String c : activeChannelList.get(user)) {
-                if (c.equalsIgnoreCase(channel)) {
-                    // We check if the client is allowed in a channel on JOIN
-                    // so if they are in the active list, then they are allowed.
-                    return true;
-                }
+        // We check if the client is allowed in a channel on JOIN so if they
+        // are in the active list, then they are allowed.
+        //
+        // If there is no list, the user has not yet joined any channels.
+        final Set<String> acl = activeChannelList.get(user);
+        return acl != null && acl.contains(myParser.getStringConverter().toLowerCase(channel));
+    }
+
+    /**
+     * Get the sockets that lines for the given channel may be sent to.
+     *
+     * Routes for channels that we are in are cached until something that
+     * affects them changes.
+     *
+     * @param channelName Channel the line is for, or null if it is not for a
+     *                    channel.
+     * @return Sockets that are active and allowed in the channel.
+     */
+    private List<UserSocket> getRoute(final String channelName) {
+        if (channelName == null) {
+            return myAccount.getUserSockets();
+        }
+
+        if (myParser.getChannel(channelName) == null) {
+            // Don't fill the table up with channels we aren't in.
+            return buildRoute(channelName);
+        }
+
+        return routingTable.computeIfAbsent(myParser.getStringConverter().toLowerCase(channelName), c -> buildRoute(channelName));
+    }
+
+    /**
+     * Work out which sockets lines for the given channel may be sent to.
+     *
+     * @param channelName Channel to check
+     * @return Sockets that are active and allowed in the channel.
+     */
+    private List<UserSocket> buildRoute(final String channelName) {
+        final List<UserSocket> result = new ArrayList<>();
+        for (UserSocket socket : myAccount.getUserSockets()) {
+            if (activeAllowedChannel(socket, channelName)) {
+                result.add(socket);
             }
         }
+        return Collections.unmodifiableList(result);
+    }
 
-       // User has not yet joined any channels, or has parted all their
-       // channels.
-       return false;
+    /**
+     * Forget all cached routes, because a socket has connected or
+     * disconnected, or something about which channels a socket can see has
+     * changed.
+     */
+    private void invalidateRoutes() {
+        routingTable = new ConcurrentHashMap<>();
     }
 
     /**
@@ -1959,9 +2250,8 @@ public class IRCConnectionHandler implements ConnectionHandler, UserSocketWatche
      */
     public void activateChannel(final UserSocket user, final String channel) {
         synchronized (activeChannelList) {
-            final Set<String> acl = (activeChannelList.containsKey(user)) ? activeChannelList.get(user) : new LinkedHashSet<>();
-            acl.add(myParser.getStringConverter().toLowerCase(channel));
-            activeChannelList.put(user, acl);
+            activeChannelList.computeIfAbsent(user, u -> ConcurrentHashMap.newKeySet()).add(myParser.getStringConverter().toLowerCase(channel));
+            invalidateRoutes();
 
             if (myParser.getChannel(channel) != null) {
                 sendChannelBurst(user, myParser.getChannel(channel));
@@ -1980,11 +2270,13 @@ public class IRCConnectionHandler implements ConnectionHandler, UserSocketWatche
      */
     public void deactivateChannel(final UserSocket user, final String channel) {
         synchronized (activeChannelList) {
+            final String lowerChannel = myParser.getStringConverter().toLowerCase(channel);
             if (user == null) {
-                activeChannelList.values().stream().forEach(acl -> acl.remove(myParser.getStringConverter().toLowerCase(channel)));
+                activeChannelList.values().forEach(acl -> acl.remove(lowerChannel));
             } else if (activeChannelList.containsKey(user)) {
-                activeChannelList.get(user).remove(myParser.getStringConverter().toLowerCase(channel));
+                activeChannelList.get(user).remove(lowerChannel);
             }
+            invalidateRoutes();
         }
     }
 
@@ -1996,26 +2288,12 @@ public class IRCConnectionHandler implements ConnectionHandler, UserSocketWatche
      * @return True if this socket is allowed, else false.
      */
     public boolean allowedChannel(final UserSocket user, final String channel) {
-        // TODO: This whole method needs optimising really... Allowed channels
-        //       need caching etc.
-        if (user.getClientID() == null || !user.getClientConfig().hasOption("irc", "channelwhitelist")) {
+        if (user.getClientID() == null) {
             // By default, we are allowed to see everywhere.
             return true;
         }
 
-        final List<String> validChannelList = user.getClientConfig().getOptionList("irc", "channelwhitelist");
-
-        if (validChannelList.isEmpty()) {
-            return true;
-        } else {
-            for (final String c : validChannelList) {
-                if (c.equalsIgnoreCase(channel)) {
-                    return true;
-                }
-            }
-        }
-
-        return false;
+        return getClientSettings(user).isAllowedChannel(myParser.getStringConverter().toLowerCase(channel));
     }
 
     /**
@@ -2026,28 +2304,23 @@ public class IRCConnectionHandler implements ConnectionHandler, UserSocketWatche
      * @return True if this line matches a highlight for the given user.
      */
     public boolean isHighlight(final UserSocket user, final String line) {
-        // TODO: Look at how to optimise this, similar to above.
-        //       Caching of regex matchers would be useful.
-        if (user.getClientID() == null || !user.getClientConfig().hasOption("irc", "highlight")) {
+        if (user.getClientID() == null) {
             // By default, nothing highlights.
             return false;
         }
 
-        final List<String> highlightList = user.getClientConfig().getOptionList("irc", "highlight");
-
-        if (highlightList.isEmpty()) {
-            return false;
-        } else {
-            for (final String h : highlightList) {
-                try {
-                    if (line.toLowerCase().matches(".*" + h.toLowerCase() + ".*")) {
-                        return true;
-                    }
-                } catch (final Exception e) { }
-            }
-        }
+        return getClientSettings(user).getHighlightMatcher().matches(line);
+    }
 
-        return false;
+    /**
+     * Get the settings for the sub-client the given socket is using.
+     *
+     * @param user UserSocket to get settings for.
+     * @return Settings for the socket's sub-client.
+     */
+    private IRCClientSettings getClientSettings(final UserSocket user) {
+        final String clientID = user.getClientID() == null ? "" : user.getClientID();
+        return clientSettings.computeIfAbsent(clientID, id -> new IRCClientSettings(user.getClientConfig(), myParser.getStringConverter()::toLowerCase));
     }
 
     /**
@@ -2088,20 +2361,40 @@ public class IRCConnectionHandler implements ConnectionHandler, UserSocketWatche
         }
     }
 
+    /**
+     * This stores lines waiting for the list modes of a channel.
+     */
+    private static class ListModeWaiters {
+
+        /** Lines waiting to be processed. */
+        private final List<RequeueLine> lines = new ArrayList<>();
+        /** Task that releases the lines if the list modes never arrive. */
+        private final ScheduledFuture<?> timeout;
+
+        /**
+         * Create a new ListModeWaiters
+         *
+         * @param timeout Task that releases the lines if the list modes never arrive
+         */
+        public ListModeWaiters(final ScheduledFuture<?> timeout) {
+            this.timeout = timeout;
+        }
+    }
+
     /**
      * This takes items from the requeue list, and requeues them.
      */
-    private static class RequeueTimerTask extends TimerTask {
+    private static class RequeueTask implements Runnable {
 
         /** The IRCConnectionHandler that owns this task */
         private final IRCConnectionHandler connectionHandler;
 
         /**
-         * Create a new RequeueTimerTask
+         * Create a new RequeueTask
          *
          * @param connectionHandler Parent connection handler
          */
-        public RequeueTimerTask(final IRCConnectionHandler connectionHandler) {
+        public RequeueTask(final IRCConnectionHandler connectionHandler) {
             this.connectionHandler = connectionHandler;
         }
 
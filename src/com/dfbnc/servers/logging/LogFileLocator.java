@@ -29,7 +29,13 @@ import java.math.BigInteger;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import com.dmdirc.parser.interfaces.ChannelInfo;
 import com.dmdirc.parser.interfaces.ClientInfo;
 
@@ -44,17 +50,32 @@ public class LogFileLocator {
     /** Whether to append a hash of the file name to the file name. */
     private final boolean filenamehash = false;
 
+    /** Date format used for the directories that {@link LogRotator} archives. */
+    static final String DATE_FORMAT = "yyyy-MM-dd";
+
     /** Whether to use date formats in file names. */
-    private final boolean usedate = false;
+    private final boolean usedate;
 
     /** Date format to use in file names if {@link #usedate} is true. */
-    private final String usedateformat = "yyyy-MM-dd";
+    private final String usedateformat = DATE_FORMAT;
 
     /** The account we are logging for. */
     private final Account myAccount;
 
+    /**
+     * Resolved log file paths, keyed by the name of the object being logged.
+     *
+     * This is only valid until {@link #cacheExpires}, after which the date
+     * part of the path may have changed.
+     */
+    private final Map<String, String> cache = new ConcurrentHashMap<>();
+
+    /** Time (in millis) at which the contents of {@link #cache} expire. */
+    private volatile long cacheExpires;
+
     public LogFileLocator(final Account account) throws Exception {
         myAccount = account;
+        usedate = myAccount.getAccountConfig().getOptionBool("server", "logrotate");
 
         final File dir = new File(myAccount.getConfigDirectory(), "logs");
         if (dir.exists()) {
@@ -90,10 +111,7 @@ public class LogFileLocator {
      * @return the name of the log file to use for this object.
      */
     public String getLogFile(final ChannelInfo channel) {
-        final StringBuffer directory = getLogDirectory();
-        final StringBuffer file = new StringBuffer();
-        file.append(sanitise(channel.getName().toLowerCase()));
-        return getPath(directory, file, channel.getName());
+        return getLogFile(channel.getName());
     }
 
     /**
@@ -104,10 +122,7 @@ public class LogFileLocator {
      * @return the name of the log file to use for this object.
      */
     public String getLogFile(final ClientInfo user) {
-        final StringBuffer directory = getLogDirectory();
-        final StringBuffer file = new StringBuffer();
-        file.append(sanitise(user.getNickname().toLowerCase()));
-        return getPath(directory, file, user.getNickname());
+        return getLogFile(user.getNickname());
     }
 
     /**
@@ -118,6 +133,94 @@ public class LogFileLocator {
      * @return the name of the log file to use for this object.
      */
     public String getLogFile(final String descriptor) {
+        if (descriptor == null) {
+            return resolveLogFile(null);
+        }
+
+        final long now = System.currentTimeMillis();
+        if (now >= cacheExpires) {
+            cache.clear();
+            cacheExpires = getCacheExpiry(now);
+        }
+
+        final String cached = cache.get(descriptor);
+        if (cached != null) {
+            return cached;
+        }
+
+        final String result = resolveLogFile(descriptor);
+        // Don't cache failures, so that we try to create the directory again
+        // next time.
+        if (result != null) {
+            cache.put(descriptor, result);
+        }
+        return result;
+    }
+
+    /**
+     * Get the log files for a specific object that have been archived by
+     * {@link LogRotator}, oldest first.
+     *
+     * @param descriptor Description of the object to get log files for.
+     *
+     * @return the archived log files for this object.
+     */
+    public List<File> getArchivedLogFiles(final String descriptor) {
+        final String path = getLogFile(descriptor);
+        if (path == null) {
+            return Collections.emptyList();
+        }
+        return LogRotator.findArchivedLogs(new File(myAccount.getConfigDirectory(), "logs"), new File(path).getName());
+    }
+
+    /**
+     * Forget the cached log file for the given object.
+     *
+     * This should be called when we stop logging an object (eg when a channel
+     * is parted or a nickname changes) so that the cache does not grow
+     * without bound.
+     *
+     * @param descriptor Description of the object to forget.
+     */
+    public void invalidate(final String descriptor) {
+        if (descriptor != null) {
+            cache.remove(descriptor);
+        }
+    }
+
+    /**
+     * Forget all cached log files.
+     */
+    public void invalidateAll() {
+        cache.clear();
+    }
+
+    /**
+     * Get the time at which paths resolved at the given time stop being valid.
+     *
+     * @param now Current time in millis
+     *
+     * @return Time (in millis) at which paths must be resolved again.
+     */
+    private long getCacheExpiry(final long now) {
+        if (!usedate) {
+            return Long.MAX_VALUE;
+        }
+
+        // The date in the path can change at most once a day, at midnight.
+        final ZoneId zone = ZoneId.systemDefault();
+        return Instant.ofEpochMilli(now).atZone(zone).toLocalDate().plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli();
+    }
+
+    /**
+     * Work out the name of the log file for a specific object, without using
+     * the cache.
+     *
+     * @param descriptor Description of the object to get a log file for.
+     *
+     * @return the name of the log file to use for this object.
+     */
+    private String resolveLogFile(final String descriptor) {
         final StringBuffer directory = getLogDirectory();
         final StringBuffer file = new StringBuffer();
         final String md5String;
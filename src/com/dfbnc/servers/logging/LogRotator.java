@@ -0,0 +1,394 @@
+/*
+ * Copyright (c) 2006-2017 DFBnc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.dfbnc.servers.logging;
+
+import com.dfbnc.Account;
+import com.dfbnc.DFBnc;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+import uk.org.dataforce.libs.logger.Logger;
+
+/**
+ * Archives server-side logs once they are finished with.
+ *
+ * When accounts use dated log directories (server.logrotate), each day's logs
+ * are finished with once the day is over. This seals those files by asking the
+ * {@link LogWriter} to close them and then moving them aside, compresses them
+ * with gzip and records them in an index in the account's logs directory so
+ * that they can still be found. Any lines that arrive for a day after it has
+ * been sealed go into a new file, which is compressed separately next time.
+ *
+ * Directories older than the account's retention period (server.logretention,
+ * in days) are deleted.
+ *
+ * All work is done on a single low-priority background thread.
+ */
+public class LogRotator {
+
+    /** How often (in minutes) to look for logs to rotate. */
+    private static final long CHECK_INTERVAL = 60;
+    /** Name of the index file in each logs directory. */
+    static final String INDEX_FILE = "archive.idx";
+    /** Extension added to compressed files. */
+    private static final String COMPRESSED_EXTENSION = ".gz";
+    /** Extension added to files that have been sealed, until they are compressed. */
+    private static final String SEALED_EXTENSION = ".sealed";
+
+    /** Format of the dated log directories. */
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern(LogFileLocator.DATE_FORMAT);
+
+    /** Executor used for all rotation work. */
+    private final ScheduledExecutorService executor;
+
+    /** Writer that may have log files open. */
+    private final LogWriter logWriter;
+
+    /**
+     * Create a new LogRotator, and start checking for logs to rotate.
+     *
+     * @param logWriter Writer that may have log files open, or null if
+     *                  nothing is writing logs.
+     */
+    public LogRotator(final LogWriter logWriter) {
+        this.logWriter = logWriter;
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "Log Rotator");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::rotateAll, 1, CHECK_INTERVAL, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Stop rotating logs. Any compression that is in progress is abandoned,
+     * and will be redone next time.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Rotate the logs for every account.
+     */
+    private void rotateAll() {
+        try {
+            for (Account account : DFBnc.getAccountManager().getAccounts()) {
+                rotate(new File(account.getConfigDirectory(), "logs"), account.getAccountConfig().getOptionInt("server", "logretention"), LocalDate.now());
+            }
+        } catch (final RuntimeException e) {
+            // Don't let one failure stop us being rescheduled.
+            Logger.error("Error rotating logs: " + e);
+        }
+    }
+
+    /**
+     * Rotate the logs in a logs directory.
+     *
+     * @param logsDir Directory to rotate
+     * @param retention Number of days of logs to keep, or 0 to keep them
+     *                  forever.
+     * @param today Current date
+     */
+    void rotate(final File logsDir, final int retention, final LocalDate today) {
+        final File[] dirs = logsDir.listFiles(File::isDirectory);
+        if (dirs == null) { return; }
+
+        final List<String> expired = new ArrayList<>();
+        for (File dir : dirs) {
+            final LocalDate date;
+            try {
+                date = LocalDate.parse(dir.getName(), DATE_FORMAT);
+            } catch (final DateTimeParseException e) {
+                continue;
+            }
+
+            if (!date.isBefore(today)) {
+                continue;
+            }
+
+            if (retention > 0 && date.isBefore(today.minusDays(retention))) {
+                delete(dir);
+                expired.add(dir.getName() + '/');
+                continue;
+            }
+
+            // Anything left over from last time needs to be compressed before
+            // any newer lines for the same file.
+            final File[] sealed = dir.listFiles((d, name) -> name.endsWith(".log" + SEALED_EXTENSION));
+            if (sealed != null) {
+                for (File file : sealed) {
+                    compress(logsDir, file);
+                }
+            }
+
+            final File[] files = dir.listFiles((d, name) -> name.endsWith(".log"));
+            if (files == null) { continue; }
+            for (File file : files) {
+                seal(logsDir, file);
+            }
+        }
+
+        if (!expired.isEmpty()) {
+            removeFromIndex(logsDir, expired);
+        }
+    }
+
+    /**
+     * Close a file, and once it is closed move it aside and compress it.
+     *
+     * @param logsDir Logs directory the file is in
+     * @param file File to seal
+     */
+    private void seal(final File logsDir, final File file) {
+        final File sealed = new File(file.getPath() + SEALED_EXTENSION);
+        // This runs on the writer thread once the file is closed, so nothing
+        // can be appended to the file while it is moved. Any later lines
+        // reopen the original name as a new file.
+        final Runnable compress = () -> {
+            if (!moveAside(file, sealed)) { return; }
+            try {
+                executor.execute(() -> compress(logsDir, sealed));
+            } catch (final RejectedExecutionException e) {
+                // We are shutting down, this will be done next time.
+            }
+        };
+
+        if (logWriter == null) {
+            if (moveAside(file, sealed)) {
+                compress(logsDir, sealed);
+            }
+        } else {
+            // If the writer is too busy to take this, we'll try again next
+            // time.
+            logWriter.close(file.getPath(), compress);
+        }
+    }
+
+    /**
+     * Move a closed log file aside so that it can be compressed.
+     *
+     * @param file File to move
+     * @param sealed Where to move it to
+     * @return true if the file was moved.
+     */
+    private static boolean moveAside(final File file, final File sealed) {
+        if (!file.exists() || sealed.exists()) {
+            // If an earlier copy is still waiting to be compressed, this one
+            // will be done next time.
+            return false;
+        }
+        try {
+            Files.move(file.toPath(), sealed.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (final IOException e) {
+            Logger.error("Unable to seal log file " + file + ": " + e);
+            return false;
+        }
+    }
+
+    /**
+     * Compress a sealed log file, and add it to the index.
+     *
+     * If there is already a compressed version of the file (because lines
+     * were added after it was last compressed) then the new data is added to
+     * the end of it, as gzip allows multiple compressed streams to be
+     * concatenated.
+     *
+     * @param logsDir Logs directory the file is in
+     * @param file Sealed file to compress
+     */
+    void compress(final File logsDir, final File file) {
+        if (!file.exists()) { return; }
+
+        final String name = file.getPath().substring(0, file.getPath().length() - SEALED_EXTENSION.length());
+        final File compressed = new File(name + COMPRESSED_EXTENSION);
+        final File temp = new File(compressed.getPath() + ".tmp");
+        try {
+            try (InputStream in = new FileInputStream(file);
+                 OutputStream out = new GZIPOutputStream(new FileOutputStream(temp))) {
+                copy(in, out);
+            }
+
+            final boolean existed = compressed.exists();
+            if (existed) {
+                try (InputStream in = new FileInputStream(temp);
+                     OutputStream out = new FileOutputStream(compressed, true)) {
+                    copy(in, out);
+                }
+                Files.delete(temp.toPath());
+            } else {
+                Files.move(temp.toPath(), compressed.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            }
+            Files.delete(file.toPath());
+
+            if (!existed) {
+                addToIndex(logsDir, compressed);
+            }
+        } catch (final IOException e) {
+            Logger.error("Unable to compress log file " + file + ": " + e);
+            if (!temp.delete() && temp.exists()) {
+                Logger.error("Unable to delete " + temp);
+            }
+        }
+    }
+
+    /**
+     * Copy a stream to another.
+     *
+     * @param in Stream to read from
+     * @param out Stream to write to
+     * @throws IOException If there is an error reading or writing
+     */
+    private static void copy(final InputStream in, final OutputStream out) throws IOException {
+        final byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+    }
+
+    /**
+     * Recursively delete a directory.
+     *
+     * @param file File or directory to delete
+     */
+    private static void delete(final File file) {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        if (!file.delete()) {
+            Logger.error("Unable to delete old log " + file);
+        }
+    }
+
+    /**
+     * Add a compressed file to the index.
+     *
+     * Each line in the index is the path of a compressed file, relative to the
+     * logs directory, using / as the separator.
+     *
+     * @param logsDir Logs directory
+     * @param compressed Compressed file to add
+     * @throws IOException If the index can't be written
+     */
+    private static void addToIndex(final File logsDir, final File compressed) throws IOException {
+        final String entry = compressed.getParentFile().getName() + '/' + compressed.getName() + '\n';
+        Files.write(new File(logsDir, INDEX_FILE).toPath(), entry.getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Remove all entries in the given directories from the index.
+     *
+     * @param logsDir Logs directory
+     * @param prefixes Directory names (with a trailing /) to remove
+     */
+    private static void removeFromIndex(final File logsDir, final List<String> prefixes) {
+        final File index = new File(logsDir, INDEX_FILE);
+        final File temp = new File(logsDir, INDEX_FILE + ".tmp");
+        if (!index.exists()) { return; }
+
+        try {
+            try (BufferedReader reader = Files.newBufferedReader(index.toPath(), StandardCharsets.UTF_8);
+                 BufferedWriter writer = Files.newBufferedWriter(temp.toPath(), StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (!startsWithAny(line, prefixes)) {
+                        writer.write(line);
+                        writer.write('\n');
+                    }
+                }
+            }
+            Files.move(temp.toPath(), index.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (final IOException e) {
+            Logger.error("Unable to update log index " + index + ": " + e);
+        }
+    }
+
+    /**
+     * Check if a line from the index is in any of the given directories.
+     *
+     * @param line Line to check
+     * @param prefixes Directory names (with a trailing /) to check
+     * @return true if the line starts with any of the prefixes.
+     */
+    private static boolean startsWithAny(final String line, final List<String> prefixes) {
+        for (String prefix : prefixes) {
+            if (line.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Find the archived versions of a log file, oldest first.
+     *
+     * @param logsDir Logs directory to search
+     * @param name Name of the log file, without any directories
+     * @return The compressed files for the given log file.
+     */
+    public static List<File> findArchivedLogs(final File logsDir, final String name) {
+        final List<File> result = new ArrayList<>();
+        final File index = new File(logsDir, INDEX_FILE);
+        if (!index.exists()) {
+            return result;
+        }
+
+        final String suffix = '/' + name + COMPRESSED_EXTENSION;
+        try (BufferedReader reader = Files.newBufferedReader(index.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.endsWith(suffix)) {
+                    result.add(new File(logsDir, line));
+                }
+            }
+        } catch (final IOException e) {
+            Logger.error("Unable to read log index " + index + ": " + e);
+        }
+        result.sort((a, b) -> a.getParentFile().getName().compareTo(b.getParentFile().getName()));
+        return result;
+    }
+}
@@ -0,0 +1,590 @@
+/*
+ * Copyright (c) 2006-2017 DFBnc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.dfbnc.servers.logging;
+
+import com.dmdirc.util.io.StreamUtils;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import uk.org.dataforce.libs.logger.Logger;
+
+/**
+ * Writes log lines to disk on a background thread.
+ *
+ * Lines are added to a bounded queue, and a single writer thread takes them off
+ * the queue in batches and writes them to the relevant files. Files are flushed
+ * according to the durability requested for each line, so that slow disks do
+ * not hold up the threads that are handling IRC traffic.
+ *
+ * Only a limited number of files are kept open at once. When another file is
+ * needed the least recently used one is closed, and files that have not been
+ * used for a while are closed even if the limit has not been reached.
+ */
+public class LogWriter {
+
+    /** How much data should be buffered for a file before writing it out. */
+    private static final int FLUSH_SIZE = 8192;
+    /** Line separator to use. */
+    private static final byte[] NEWLINE = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+    /** How often (in ms) buffered files should be flushed. */
+    private static final long FLUSH_INTERVAL = 1000;
+    /** How long (in ms) a file can be unused before it is closed. */
+    private static final long IDLE_TIME = 3480000;
+    /** How often (in ms) to check for idle files. */
+    private static final long IDLE_CHECK_INTERVAL = 60000;
+    /** How long (in ms) to wait for space in the queue before dropping a line. */
+    private static final long QUEUE_WAIT = 50;
+    /** How often (in ms) to report dropped lines. */
+    private static final long REPORT_INTERVAL = 60000;
+    /** Maximum number of lines to take off the queue at once. */
+    private static final int MAX_BATCH = 1000;
+
+    /** Date format used for Normal log lines. */
+    private static final DateTimeFormatter LOG_FORMAT = DateTimeFormatter.ofPattern("'['dd/MM/yyyy HH:mm:ss']'").withZone(ZoneId.systemDefault());
+
+    /**
+     * How durable writes need to be.
+     */
+    public enum Durability {
+        /** Lines are flushed after a short time, or once enough are waiting. */
+        BUFFERED,
+        /** Lines are flushed to the OS as soon as they are written. */
+        FLUSH,
+        /** Lines are flushed and synced to disk as soon as they are written. */
+        SYNC;
+
+        /**
+         * Get the durability for the given config value.
+         *
+         * @param value Config value
+         * @return Matching durability, or BUFFERED if the value is not known.
+         */
+        public static Durability fromString(final String value) {
+            for (Durability durability : values()) {
+                if (durability.name().equalsIgnoreCase(value)) {
+                    return durability;
+                }
+            }
+            return BUFFERED;
+        }
+    }
+
+    /** Queue of lines to write. */
+    private final BlockingQueue<Entry> queue;
+    /**
+     * Files that are currently open, least recently used first. Only used by
+     * the writer thread.
+     */
+    private final Map<String, OpenFile> openFiles = new LinkedHashMap<>(16, 0.75f, true);
+    /** Maximum number of files to keep open. */
+    private final int maxOpenFiles;
+    /** Writer thread. */
+    private final Thread writerThread;
+    /** Are we still accepting lines? */
+    private volatile boolean running = true;
+    /** Number of lines written. */
+    private final AtomicLong linesWritten = new AtomicLong();
+    /** Number of lines dropped because the queue was full. */
+    private final AtomicLong linesDropped = new AtomicLong();
+    /** Number of bytes written. */
+    private final AtomicLong bytesWritten = new AtomicLong();
+    /** Number of times a file has been opened. */
+    private final AtomicLong filesOpened = new AtomicLong();
+    /** Number of files closed to make room for another file. */
+    private final AtomicLong filesEvicted = new AtomicLong();
+    /** Number of files closed because they were idle. */
+    private final AtomicLong filesIdleClosed = new AtomicLong();
+    /** Number of files currently open. */
+    private volatile int openFileCount;
+    /** Number of lines dropped at the last report. */
+    private long lastReportedDropped;
+    /** Time of the last report of dropped lines. */
+    private long lastReportTime;
+    /** Time of the last check for idle files. */
+    private long lastIdleCheck = System.currentTimeMillis();
+
+    /**
+     * Create a new LogWriter and start its writer thread.
+     *
+     * @param queueSize Maximum number of lines waiting to be written
+     * @param maxOpenFiles Maximum number of files to keep open at once
+     */
+    public LogWriter(final int queueSize, final int maxOpenFiles) {
+        queue = new ArrayBlockingQueue<>(queueSize);
+        this.maxOpenFiles = Math.max(1, maxOpenFiles);
+        writerThread = new Thread(this::run, "Log Writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Add a line to a file.
+     *
+     * If the queue is full this waits a short time for space, then drops the
+     * line.
+     *
+     * @param filename Name of file to write to
+     * @param time Time the line was logged
+     * @param line Line to add (without a timestamp or newline)
+     * @param durability How durable the write needs to be
+     * @return true if the line was queued, false if it was dropped.
+     */
+    public boolean append(final String filename, final long time, final String line, final Durability durability) {
+        return offer(new Entry(filename, time, line, durability, null));
+    }
+
+    /**
+     * Close the given file, once any lines already queued for it have been
+     * written.
+     *
+     * @param filename Name of file to close
+     */
+    public void close(final String filename) {
+        close(filename, null);
+    }
+
+    /**
+     * Close the given file, once any lines already queued for it have been
+     * written, and then run the given callback on the writer thread.
+     *
+     * @param filename Name of file to close
+     * @param onClosed Callback to run once the file is closed, or null
+     * @return true if the close was queued, false if it was dropped.
+     */
+    public boolean close(final String filename, final Runnable onClosed) {
+        return offer(new Entry(filename, 0, null, Durability.FLUSH, onClosed));
+    }
+
+    /**
+     * Add an entry to the queue, waiting a short time if it is full.
+     *
+     * @param entry Entry to add
+     * @return true if the entry was queued.
+     */
+    private boolean offer(final Entry entry) {
+        if (!running) { return false; }
+
+        try {
+            if (queue.offer(entry) || queue.offer(entry, QUEUE_WAIT, TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+
+        linesDropped.incrementAndGet();
+        reportDropped();
+        return false;
+    }
+
+    /**
+     * Report that lines are being dropped, at most once per REPORT_INTERVAL.
+     */
+    private synchronized void reportDropped() {
+        final long now = System.currentTimeMillis();
+        if (now - lastReportTime >= REPORT_INTERVAL) {
+            final long dropped = linesDropped.get();
+            Logger.warning("Log writer queue is full, " + (dropped - lastReportedDropped) + " lines have been dropped.");
+            lastReportedDropped = dropped;
+            lastReportTime = now;
+        }
+    }
+
+    /**
+     * Get the number of lines currently waiting to be written.
+     *
+     * @return Number of queued lines.
+     */
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    /**
+     * Get the number of lines that have been written.
+     *
+     * @return Number of lines written.
+     */
+    public long getLinesWritten() {
+        return linesWritten.get();
+    }
+
+    /**
+     * Get the number of lines that have been dropped because the queue was
+     * full.
+     *
+     * @return Number of lines dropped.
+     */
+    public long getLinesDropped() {
+        return linesDropped.get();
+    }
+
+    /**
+     * Get the number of bytes that have been written.
+     *
+     * @return Number of bytes written.
+     */
+    public long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+    /**
+     * Get the number of times a file has been opened.
+     *
+     * @return Number of files opened.
+     */
+    public long getFilesOpened() {
+        return filesOpened.get();
+    }
+
+    /**
+     * Get the number of files that have been closed to make room for another
+     * file.
+     *
+     * @return Number of files evicted.
+     */
+    public long getFilesEvicted() {
+        return filesEvicted.get();
+    }
+
+    /**
+     * Get the number of files that have been closed because they were idle.
+     *
+     * @return Number of idle files closed.
+     */
+    public long getFilesIdleClosed() {
+        return filesIdleClosed.get();
+    }
+
+    /**
+     * Get the number of files that are currently open.
+     *
+     * @return Number of open files.
+     */
+    public int getOpenFileCount() {
+        return openFileCount;
+    }
+
+    /**
+     * Get the maximum number of files that will be kept open.
+     *
+     * @return Maximum number of open files.
+     */
+    public int getMaxOpenFiles() {
+        return maxOpenFiles;
+    }
+
+    /**
+     * Stop accepting lines, write everything that is already queued and close
+     * all files.
+     */
+    public void shutdown() {
+        running = false;
+        // Wake the writer thread up without interrupting it, as interrupting
+        // a thread closes any FileChannel it is using. If the queue is full
+        // then the thread is busy anyway, and will notice that we have
+        // stopped once it has emptied the queue.
+        queue.offer(new Entry(null, 0, null, Durability.BUFFERED, null));
+        try {
+            writerThread.join(10000);
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Main loop of the writer thread.
+     */
+    private void run() {
+        final List<Entry> batch = new ArrayList<>(MAX_BATCH);
+        while (running || !queue.isEmpty()) {
+            try {
+                final Entry entry = queue.poll(FLUSH_INTERVAL, TimeUnit.MILLISECONDS);
+                if (entry != null) {
+                    batch.add(entry);
+                    queue.drainTo(batch, MAX_BATCH - 1);
+                }
+            } catch (final InterruptedException ex) {
+                // Shouldn't happen, but if it does drain whatever is left.
+                queue.drainTo(batch);
+            }
+
+            batch.forEach(this::write);
+            batch.clear();
+            flushFiles(false);
+            closeIdleFiles();
+        }
+
+        flushFiles(true);
+        openFiles.values().forEach(this::closeFile);
+        openFiles.clear();
+        openFileCount = 0;
+    }
+
+    /**
+     * Write a single entry.
+     *
+     * @param entry Entry to write
+     */
+    private void write(final Entry entry) {
+        if (entry.filename == null) {
+            // Used to wake the thread on shutdown.
+            return;
+        }
+
+        if (entry.line == null) {
+            final OpenFile file = openFiles.remove(entry.filename);
+            if (file != null) {
+                closeFile(file);
+                openFileCount = openFiles.size();
+            }
+            if (entry.onClosed != null) {
+                try {
+                    entry.onClosed.run();
+                } catch (final RuntimeException e) {
+                    Logger.error("Error after closing log file " + entry.filename + ": " + e);
+                }
+            }
+            return;
+        }
+
+        try {
+            OpenFile file = openFiles.get(entry.filename);
+            if (file == null) {
+                file = openFile(entry.filename);
+            }
+
+            file.append((LOG_FORMAT.format(Instant.ofEpochMilli(entry.time)) + ' ' + entry.line).getBytes(StandardCharsets.UTF_8));
+            file.append(NEWLINE);
+            file.lastUsedTime = System.currentTimeMillis();
+            if (entry.durability.compareTo(file.durability) > 0) {
+                file.durability = entry.durability;
+            }
+            linesWritten.incrementAndGet();
+        } catch (final IOException e) {
+            /*
+             * Do Nothing
+             *
+             * Makes no sense to keep adding errors to the logger when we can't write to the file,
+             * as chances are it will happen on every incomming line.
+             */
+        }
+    }
+
+    /**
+     * Open a file for appending, closing the least recently used file first if
+     * too many are already open.
+     *
+     * @param filename Name of file to open
+     * @return The newly opened file.
+     * @throws IOException If the file can't be opened
+     */
+    private OpenFile openFile(final String filename) throws IOException {
+        if (openFiles.size() >= maxOpenFiles) {
+            final Iterator<OpenFile> it = openFiles.values().iterator();
+            closeFile(it.next());
+            it.remove();
+            filesEvicted.incrementAndGet();
+        }
+
+        final OpenFile file = new OpenFile(FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND));
+        openFiles.put(filename, file);
+        openFileCount = openFiles.size();
+        filesOpened.incrementAndGet();
+        return file;
+    }
+
+    /**
+     * Write out anything buffered for a file, and close it.
+     *
+     * @param file File to close
+     */
+    private void closeFile(final OpenFile file) {
+        try {
+            file.flush();
+        } catch (final IOException e) {
+            /* Do Nothing, as in write. */
+        }
+        StreamUtils.close(file.channel);
+    }
+
+    /**
+     * Flush any files that need it.
+     *
+     * @param force Flush all files, regardless of durability.
+     */
+    private void flushFiles(final boolean force) {
+        final long now = System.currentTimeMillis();
+        for (OpenFile file : openFiles.values()) {
+            if (file.pending == 0) { continue; }
+
+            if (force || file.durability != Durability.BUFFERED || now - file.lastFlushTime >= FLUSH_INTERVAL) {
+                try {
+                    file.flush();
+                    if (file.durability == Durability.SYNC) {
+                        file.channel.force(false);
+                    }
+                } catch (final IOException e) {
+                    /* Do Nothing, as above. */
+                }
+                file.pending = 0;
+                file.lastFlushTime = now;
+                file.durability = Durability.BUFFERED;
+            }
+        }
+    }
+
+    /**
+     * Close any files that haven't been used recently.
+     */
+    private void closeIdleFiles() {
+        final long now = System.currentTimeMillis();
+        if (now - lastIdleCheck < IDLE_CHECK_INTERVAL) { return; }
+        lastIdleCheck = now;
+
+        final Iterator<OpenFile> it = openFiles.values().iterator();
+        while (it.hasNext()) {
+            final OpenFile file = it.next();
+            if (now - file.lastUsedTime > IDLE_TIME) {
+                closeFile(file);
+                it.remove();
+                filesIdleClosed.incrementAndGet();
+            }
+        }
+        openFileCount = openFiles.size();
+    }
+
+    /** A line waiting to be written. */
+    private static class Entry {
+        /** File to write to, or null if there is nothing to do. */
+        final String filename;
+        /** Time the line was logged. */
+        final long time;
+        /** Line to write, or null to close the file. */
+        final String line;
+        /** How durable the write needs to be. */
+        final Durability durability;
+        /** Callback to run once the file is closed, if line is null. */
+        final Runnable onClosed;
+
+        /**
+         * Create a new Entry.
+         *
+         * @param filename File to write to
+         * @param time Time the line was logged
+         * @param line Line to write, or null to close the file
+         * @param durability How durable the write needs to be
+         * @param onClosed Callback to run once the file is closed, or null
+         */
+        Entry(final String filename, final long time, final String line, final Durability durability, final Runnable onClosed) {
+            this.filename = filename;
+            this.time = time;
+            this.line = line;
+            this.durability = durability;
+            this.onClosed = onClosed;
+        }
+    }
+
+    /** Open File. */
+    private class OpenFile {
+        /** Channel that has the file open. */
+        final FileChannel channel;
+        /** Data waiting to be written to the channel. */
+        final ByteBuffer buffer = ByteBuffer.allocate(FLUSH_SIZE);
+        /** Last used time. */
+        long lastUsedTime = System.currentTimeMillis();
+        /** Last time the file was flushed. */
+        long lastFlushTime = System.currentTimeMillis();
+        /** Number of bytes added since the last flush. */
+        int pending;
+        /** Highest durability requested since the last flush. */
+        Durability durability = Durability.BUFFERED;
+
+        /**
+         * Creates a new open file.
+         *
+         * @param channel Channel that has the file open
+         */
+        OpenFile(final FileChannel channel) {
+            this.channel = channel;
+        }
+
+        /**
+         * Add some data to the file, writing out the buffer first if there is
+         * not enough room.
+         *
+         * @param data Data to add
+         * @throws IOException If the data can't be written
+         */
+        void append(final byte[] data) throws IOException {
+            if (data.length > buffer.remaining()) {
+                flush();
+            }
+            if (data.length > buffer.capacity()) {
+                writeFully(ByteBuffer.wrap(data));
+            } else {
+                buffer.put(data);
+            }
+            pending += data.length;
+        }
+
+        /**
+         * Write anything in the buffer to the channel.
+         *
+         * @throws IOException If the data can't be written
+         */
+        void flush() throws IOException {
+            buffer.flip();
+            try {
+                writeFully(buffer);
+            } finally {
+                buffer.clear();
+            }
+        }
+
+        /**
+         * Write all of the given data to the channel.
+         *
+         * @param data Data to write
+         * @throws IOException If the data can't be written
+         */
+        private void writeFully(final ByteBuffer data) throws IOException {
+            while (data.hasRemaining()) {
+                bytesWritten.addAndGet(channel.write(data));
+            }
+        }
+    }
+}
@@ -28,24 +28,16 @@ package com.dfbnc.servers.logging;
 
 import com.dfbnc.Account;
 import com.dfbnc.ConnectionHandler;
-import com.dmdirc.util.io.StreamUtils;
+import com.dfbnc.DFBnc;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.HashSet;
+import java.util.Set;
 import net.engio.mbassy.listener.Handler;
 import com.dmdirc.parser.interfaces.ChannelClientInfo;
 import com.dmdirc.parser.interfaces.ChannelInfo;
 import com.dmdirc.parser.interfaces.ClientInfo;
-import java.io.BufferedWriter;
-import java.io.FileWriter;
-import java.io.IOException;
-import java.util.Date;
 import com.dmdirc.parser.events.PrivateActionEvent;
 import com.dmdirc.parser.events.PrivateMessageEvent;
 import com.dmdirc.parser.events.ChannelMessageEvent;
@@ -57,12 +49,14 @@ import com.dmdirc.parser.events.ChannelPartEvent;
 import com.dmdirc.parser.events.ChannelQuitEvent;
 import com.dmdirc.parser.events.ChannelKickEvent;
 import com.dmdirc.parser.events.ChannelNickChangeEvent;
+import com.dmdirc.parser.events.NickChangeEvent;
 import com.dmdirc.parser.events.ChannelModeChangeEvent;
 import com.dmdirc.parser.events.ChannelNoticeEvent;
 import com.dmdirc.parser.events.PrivateNoticeEvent;
 
 import com.dmdirc.parser.events.SocketCloseEvent;
 import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -80,17 +74,17 @@ import java.util.concurrent.atomic.AtomicBoolean;
 public class ServerLogger {
 
     /** Date format used for "File Opened At" log. */
-    private static final DateFormat OPENED_AT_FORMAT = new SimpleDateFormat("EEEE MMMM dd, yyyy - HH:mm:ss");
-    /** Date format used for Normal log lines. */
-    private static final DateFormat LOG_FORMAT = new SimpleDateFormat("[dd/MM/yyyy HH:mm:ss]");
-    /** Map of open files. */
-    private final Map<String, OpenFile> openFiles = Collections.synchronizedMap(new HashMap<>());
+    private static final DateTimeFormatter OPENED_AT_FORMAT = DateTimeFormatter.ofPattern("EEEE MMMM dd, yyyy - HH:mm:ss");
+    /** How often (in ms) to tell the account that log lines are being dropped. */
+    private static final long DROPPED_REPORT_INTERVAL = 60000;
+    /** Files we have written to that may still be open. */
+    private final Set<String> usedFiles = Collections.synchronizedSet(new HashSet<>());
+    /** Last time we told the account that log lines were dropped. */
+    private volatile long lastDroppedReport;
     /** The account we are logging for. */
     private final Account myAccount;
     /** The connection handler we are logging for. */
     private final ConnectionHandler myConnectionHandler;
-    /** Timer used to close idle files. */
-    private final Timer idleFileTimer;
     /** Log file Locator */
     protected final LogFileLocator locator;
     /** Do we want to add channel modes to log messages. */
@@ -132,15 +126,6 @@ public class ServerLogger {
 
         locator = new LogFileLocator(myAccount);
 
-        // Close idle files every hour.
-        idleFileTimer = new Timer("Logging Timer [" + myAccount.getName() + "]");
-        idleFileTimer.schedule(new TimerTask() {
-            @Override
-            public void run() {
-                timerTask();
-            }
-        }, 3600000);
-
         myConnectionHandler.subscribe(this);
     }
 
@@ -150,49 +135,25 @@ public class ServerLogger {
         handleSocketClose(new SocketCloseEvent(myConnectionHandler.getParser(), LocalDateTime.now()));
         disabled.set(true);
 
-        if (idleFileTimer != null) {
-            idleFileTimer.cancel();
-            idleFileTimer.purge();
-        }
-
         // Close all the open channels.
         for (final ChannelInfo c : new LinkedList<>(myChannels)) {
             final String filename = locator.getLogFile(c);
             if (filename == null) { continue; }
 
             appendLine(filename, "");
-            appendLine(filename, "*** Channel closed at: %s", OPENED_AT_FORMAT.format(new Date()));
+            appendLine(filename, "*** Channel closed at: %s", OPENED_AT_FORMAT.format(LocalDateTime.now()));
             myChannels.remove(c);
         }
 
-        synchronized (openFiles) {
-            openFiles.values().stream().forEach(file -> StreamUtils.close(file.writer));
-            openFiles.clear();
+        synchronized (usedFiles) {
+            usedFiles.forEach(DFBnc.getLogWriter()::close);
+            usedFiles.clear();
         }
+        locator.invalidateAll();
 
         myConnectionHandler.unsubscribe(this);
     }
 
-    /**
-     * What to do every hour when the timer fires.
-     */
-    protected void timerTask() {
-        // Oldest time to allow
-        final long oldestTime = System.currentTimeMillis() - 3480000;
-
-        synchronized (openFiles) {
-            final Collection<String> old = new ArrayList<>(openFiles.size());
-            for (Map.Entry<String, OpenFile> entry : openFiles.entrySet()) {
-                if (entry.getValue().lastUsedTime < oldestTime) {
-                    StreamUtils.close(entry.getValue().writer);
-                    old.add(entry.getKey());
-                }
-            }
-
-            openFiles.keySet().removeAll(old);
-        }
-    }
-
     @Handler
     public void handleQueryActions(final PrivateActionEvent event) {
         final ClientInfo user = event.getParser().getClient(event.getHost());
@@ -278,7 +239,7 @@ public class ServerLogger {
         synchronized (myChannels) {
             if (!myChannels.contains(event.getChannel())) {
                 myChannels.add(event.getChannel());
-                appendLine(filename, "*** Channel opened at: %s", OPENED_AT_FORMAT.format(new Date()));
+                appendLine(filename, "*** Channel opened at: %s", OPENED_AT_FORMAT.format(LocalDateTime.now()));
                 appendLine(filename, "");
             }
         }
@@ -306,15 +267,13 @@ public class ServerLogger {
             synchronized(myChannels) {
                 if (myChannels.contains(event.getChannel())) {
                     appendLine(filename, "");
-                    appendLine(filename, "*** Channel closed at: %s", OPENED_AT_FORMAT.format(new Date()));
+                    appendLine(filename, "*** Channel closed at: %s", OPENED_AT_FORMAT.format(LocalDateTime.now()));
                     myChannels.remove(event.getChannel());
                 }
             }
 
-            if (openFiles.containsKey(filename)) {
-                StreamUtils.close(openFiles.get(filename).writer);
-                openFiles.remove(filename);
-            }
+            closeFile(filename);
+            locator.invalidate(event.getChannel().getName());
         }
     }
 
@@ -343,15 +302,13 @@ public class ServerLogger {
             synchronized(myChannels) {
                 if (myChannels.contains(event.getChannel())) {
                     appendLine(filename, "");
-                    appendLine(filename, "*** Channel closed at: %s", OPENED_AT_FORMAT.format(new Date()));
+                    appendLine(filename, "*** Channel closed at: %s", OPENED_AT_FORMAT.format(LocalDateTime.now()));
                     myChannels.remove(event.getChannel());
                 }
             }
 
-            if (openFiles.containsKey(filename)) {
-                StreamUtils.close(openFiles.get(filename).writer);
-                openFiles.remove(filename);
-            }
+            closeFile(filename);
+            locator.invalidate(event.getChannel().getName());
         }
     }
 
@@ -371,19 +328,17 @@ public class ServerLogger {
 
         if (victim.getClient() == localClient) {
             appendLine(filename, "");
-            appendLine(filename, "*** Channel closed at: %s", OPENED_AT_FORMAT.format(new Date()));
+            appendLine(filename, "*** Channel closed at: %s", OPENED_AT_FORMAT.format(LocalDateTime.now()));
             synchronized(myChannels) {
                 if (myChannels.contains(event.getChannel())) {
                     appendLine(filename, "");
-                    appendLine(filename, "*** Channel closed at: %s", OPENED_AT_FORMAT.format(new Date()));
+                    appendLine(filename, "*** Channel closed at: %s", OPENED_AT_FORMAT.format(LocalDateTime.now()));
                     myChannels.remove(event.getChannel());
                 }
             }
 
-            if (openFiles.containsKey(filename)) {
-                StreamUtils.close(openFiles.get(filename).writer);
-                openFiles.remove(filename);
-            }
+            closeFile(filename);
+            locator.invalidate(event.getChannel().getName());
         }
     }
 
@@ -395,6 +350,12 @@ public class ServerLogger {
         appendLine(filename, "*** %s is now %s", getDisplayName(event.getClient(),event.getOldNick()), getDisplayName(event.getClient()));
     }
 
+    @Handler
+    public void handleClientNickChange(final NickChangeEvent event) {
+        // Queries with the old nickname will now be logged to a different file.
+        locator.invalidate(event.getOldNick());
+    }
+
     @Handler
     public void handleModeChange(final ChannelModeChangeEvent event) {
         final String filename = locator.getLogFile(event.getChannel());
@@ -432,39 +393,32 @@ public class ServerLogger {
         if (myAccount.getAccountConfig().getOptionBool("server", "logging") == false) { return true; }
         if (disabled.get()) { return false; }
 
-        final StringBuilder finalLine = new StringBuilder();
+        final LogWriter.Durability durability = LogWriter.Durability.fromString(myAccount.getAccountConfig().getOption("server", "logdurability"));
 
-        final String dateString = LOG_FORMAT.format(new Date()).trim();
-        finalLine.append(dateString);
-        finalLine.append(' ');
-
-        finalLine.append(line);
-
-        try {
-            final BufferedWriter out;
-            if (openFiles.containsKey(filename)) {
-                final OpenFile of = openFiles.get(filename);
-                of.lastUsedTime = System.currentTimeMillis();
-                out = of.writer;
-            } else {
-                out = new BufferedWriter(new FileWriter(filename, true));
-                openFiles.put(filename, new OpenFile(out));
-            }
-            out.write(finalLine.toString());
-            out.newLine();
-            out.flush();
+        usedFiles.add(filename);
+        if (DFBnc.getLogWriter().append(filename, System.currentTimeMillis(), line, durability)) {
             return true;
-        } catch (IOException e) {
-            /*
-             * Do Nothing
-             *
-             * Makes no sense to keep adding errors to the logger when we can't write to the file,
-             * as chances are it will happen on every incomming line.
-             */
+        }
+
+        final long now = System.currentTimeMillis();
+        if (now - lastDroppedReport > DROPPED_REPORT_INTERVAL) {
+            lastDroppedReport = now;
+            myAccount.sendBotMessage("Server-side logging is falling behind, some lines have not been logged.");
         }
         return false;
     }
 
+    /**
+     * Close a file once any lines already queued for it have been written.
+     *
+     * @param filename Name of file to close
+     */
+    private void closeFile(final String filename) {
+        if (usedFiles.remove(filename)) {
+            DFBnc.getLogWriter().close(filename);
+        }
+    }
+
     /**
      * Get full hostname name for channelClient.
      *
@@ -505,23 +459,4 @@ public class ServerLogger {
         }
     }
 
-
-    /** Open File. */
-    private static class OpenFile {
-
-        /** Last used time. */
-        public long lastUsedTime = System.currentTimeMillis();
-        /** Open file's writer. */
-        public final BufferedWriter writer;
-
-        /**
-         * Creates a new open file.
-         *
-         * @param writer Writer that has file open
-         */
-        protected OpenFile(final BufferedWriter writer) {
-            this.writer = writer;
-        }
-
-    }
 }
@@ -33,6 +33,7 @@ import com.dfbnc.commands.Command;
 import com.dfbnc.commands.CommandException;
 import com.dfbnc.commands.CommandNotFoundException;
 import com.dfbnc.commands.CommandOutputBuffer;
+import com.dfbnc.commands.CommandOutputSink;
 import com.dfbnc.commands.filters.CommandOutputFilter;
 import com.dfbnc.commands.filters.CommandOutputFilterException;
 import com.dfbnc.commands.filters.CommandOutputFilterManager;
@@ -51,6 +52,7 @@ import java.nio.channels.SocketChannel;
 import java.security.cert.CertificateEncodingException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
@@ -61,6 +63,9 @@ import java.util.Random;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 import javax.net.ssl.SSLPeerUnverifiedException;
 
@@ -141,6 +146,28 @@ public class UserSocket extends ConnectedSocket {
     /** Authenticator to use to authenticate connections. */
     private final Authenticator authenticator;
 
+    /** Runs bot commands from this socket, in order, off the socket thread. */
+    private final Executor commandQueue;
+
+    /** Number of bot commands from this socket waiting in commandQueue. */
+    private final AtomicInteger queuedCommands = new AtomicInteger();
+
+    /**
+     * Maximum number of lines to hold while a password is being checked.
+     * Clients sending more than this are disconnected, rather than having
+     * lines silently dropped.
+     */
+    private static final int MAX_HELD_LINES = 100;
+
+    /** Lines received while a password is being checked. */
+    private final LinkedList<String> heldLines = new LinkedList<>();
+
+    /** Are lines being held until a password has been checked? */
+    private boolean holdingLines;
+
+    /** Number of password checks started, guarded by heldLines. */
+    private int passwordChecks;
+
     /**
      * Create a new UserSocket.
      *
@@ -154,6 +181,7 @@ public class UserSocket extends ConnectedSocket {
         // TODO: Pass AccountManager in to UserSocket, instead of using a static method.
         // TODO: Decouple Authenticator and UserSocket
         authenticator = new Authenticator(DFBnc.getAccountManager(), this);
+        commandQueue = DFBnc.getCommandExecutor().getQueue();
 
         synchronized (knownSockets) {
             final Random random = new Random();
@@ -467,6 +495,25 @@ public class UserSocket extends ConnectedSocket {
         }
     }
 
+    /**
+     * Used to send a group of lines of IRC data to the underlying socket.
+     *
+     * The lines are joined together and handed to the socket in a single
+     * write, rather than one at a time.
+     *
+     * @param lines Lines to send
+     */
+    public void sendLines(final Collection<String> lines) {
+        if (lines.isEmpty()) { return; }
+
+        final StringBuilder output = new StringBuilder();
+        for (final String line : lines) {
+            if (output.length() > 0) { output.append("\r\n"); }
+            output.append(line);
+        }
+        this.sendLine(output.toString());
+    }
+
     @Override
     public void socketOpened() {
         sendBotMessage("Welcome to DFBnc (%s)", DFBnc.getVersion());
@@ -570,22 +617,41 @@ public class UserSocket extends ConnectedSocket {
      */
     public void sendBotMessage(final String data, final Object... args) {
         final String outLine = args.length == 0 ? data : String.format(data, args);
+        sendLine("%s", getBotMessageLine(outLine));
+    }
 
+    /**
+     * Send a group of messages to the user from the bnc bot, in a single
+     * write.
+     *
+     * @param messages The messages to send
+     */
+    public void sendBotMessages(final Collection<String> messages) {
+        sendLines(messages.stream().map(this::getBotMessageLine).collect(Collectors.toList()));
+    }
+
+    /**
+     * Get the line needed to send a message to the user from the bnc bot.
+     *
+     * @param message The message to send
+     * @return The raw line to send
+     */
+    private String getBotMessageLine(final String message) {
         if (post001) {
             if (myAccount != null) {
                 final String method = myAccount.getContactMethod();
                 if (method.equalsIgnoreCase("SNOTICE")) {
-                    sendServerLine("NOTICE", data, args);
+                    return String.format(":%s %s %s :%s", getServerName(), "NOTICE", nickname, message);
                 } else if (method.equalsIgnoreCase("AUTH")) {
-                    sendLine("NOTICE AUTH :- %s", outLine);
+                    return "NOTICE AUTH :- " + message;
                 } else {
-                    sendBotLine(method, data, args);
+                    return String.format(":%s!bot@%s %s %s :%s", Util.getBotName(), getServerName(), method, nickname, message);
                 }
             } else {
-                sendServerLine("NOTICE", data, args);
+                return String.format(":%s %s %s :%s", getServerName(), "NOTICE", nickname, message);
             }
         } else {
-            sendLine("NOTICE AUTH :- %s", outLine);
+            return "NOTICE AUTH :- " + message;
         }
     }
 
@@ -728,6 +794,35 @@ public class UserSocket extends ConnectedSocket {
 
     @Override
     public void processLine(final String line) {
+        // Hold on to anything sent while the password is being checked, so
+        // that it is processed in order afterwards.
+        final boolean overflow;
+        synchronized (heldLines) {
+            if (!holdingLines) {
+                overflow = false;
+            } else if (heldLines.size() < MAX_HELD_LINES) {
+                heldLines.add(line);
+                return;
+            } else {
+                heldLines.clear();
+                overflow = true;
+            }
+        }
+
+        if (overflow) {
+            close("Too many lines sent while waiting for password check");
+            return;
+        }
+
+        handleLine(line);
+    }
+
+    /**
+     * Process a line of data from the user.
+     *
+     * @param line Line to process
+     */
+    private void handleLine(final String line) {
         // Reset the inactive counter.
         this.inactiveCounter = 0;
 
@@ -955,8 +1050,14 @@ public class UserSocket extends ConnectedSocket {
                 break;
             case READY:
                 Logger.debug2(String.format("Authenticator is ready"));
-                handleAccount(authenticator.authenticate(lastCommand));
-                break;
+                synchronized (heldLines) {
+                    holdingLines = true;
+                    passwordChecks++;
+                }
+                // Only the password check itself runs on the verifier, the
+                // rest is handed back to this socket's command queue.
+                authenticator.authenticate(lastCommand, account -> queueTask(() -> handleVerified(account, lastCommand)));
+                return;
         }
 
         if (authenticator.getStatus() != status) {
@@ -964,6 +1065,47 @@ public class UserSocket extends ConnectedSocket {
         }
     }
 
+    /**
+     * Deals with the result of checking a password, and then processes any
+     * lines that were held while it was being checked.
+     *
+     * This is run from the socket's command queue rather than the
+     * PasswordVerifier, so that the verifier threads are only ever busy
+     * checking passwords.
+     *
+     * @param account The account the user authed as (or null if they failed to auth).
+     * @param lastCommand The command that caused the password to be checked.
+     */
+    private void handleVerified(final Account account, final String lastCommand) {
+        final int check;
+        synchronized (heldLines) {
+            check = passwordChecks;
+        }
+
+        if (isOpen()) {
+            handleAccount(account);
+            checkAuthStatus(lastCommand);
+        }
+
+        while (true) {
+            final String line;
+            synchronized (heldLines) {
+                // If a held line started another check, then the rest will be
+                // dealt with once that has finished.
+                if (check != passwordChecks) {
+                    return;
+                }
+                line = isOpen() ? heldLines.poll() : null;
+                if (line == null) {
+                    heldLines.clear();
+                    holdingLines = false;
+                    return;
+                }
+            }
+            handleLine(line);
+        }
+    }
+
     /**
      * Deals with an account returned from authentication.
      *
@@ -987,13 +1129,17 @@ public class UserSocket extends ConnectedSocket {
         }
 
         if (account.isFirst()) {
-            final CommandOutputBuffer co = new CommandOutputBuffer(this);
-            handleBotCommand(new String[]{"show", "firsttime"}, co);
-            if (account.isAdmin()) {
-                sendBotMessage("");
-                handleBotCommand(new String[]{"show", "firsttime", "admin"}, co);
-            }
-            co.send();
+            commandQueue.execute(() -> {
+                final CommandOutputBuffer co = new CommandOutputBuffer(this);
+                handleBotCommand(new String[]{"show", "firsttime"}, co);
+                co.send();
+                if (account.isAdmin()) {
+                    sendBotMessage("");
+                    final CommandOutputBuffer adminCo = new CommandOutputBuffer(this);
+                    handleBotCommand(new String[]{"show", "firsttime", "admin"}, adminCo);
+                    adminCo.send();
+                }
+            });
         }
     }
 
@@ -1045,9 +1191,7 @@ public class UserSocket extends ConnectedSocket {
             case "NOTICE":
                 if (line.length > 2) {
                     if (line[1].toLowerCase().startsWith(Util.getBotName().toLowerCase())) {
-                        final CommandOutputBuffer co = new CommandOutputBuffer(this);
-                        handleBotCommand(line[2].split(" "), co);
-                        co.send();
+                        runBotCommand(line[2].split(" "));
                         return;
                     } else {
                         if (getClientType() == ClientType.TapChat && line.length > 2 && (line[2].startsWith("./"))) {
@@ -1085,9 +1229,7 @@ public class UserSocket extends ConnectedSocket {
                 } else {
                     bits = new String[0];
                 }
-                final CommandOutputBuffer co = new CommandOutputBuffer(this);
-                handleBotCommand(bits, co);
-                co.send();
+                runBotCommand(bits);
                 return;
             case "WHOIS":
                 if (line[1].toLowerCase().startsWith(Util.getBotName().toLowerCase())) {
@@ -1123,6 +1265,62 @@ public class UserSocket extends ConnectedSocket {
         }
     }
 
+    /**
+     * Run a task for this socket on its command queue, after any commands
+     * from this socket that are already waiting.
+     *
+     * This is used for slow work (such as sending a burst to a client) that
+     * should not be done on the socket thread or the scheduler.
+     *
+     * @param task Task to run
+     */
+    public void queueTask(final Runnable task) {
+        commandQueue.execute(task);
+    }
+
+    /**
+     * Run a command sent to the bot, and send its output once it has run.
+     *
+     * Commands that only report information (see
+     * {@link Command#allowBackground()}) can be slow, so they are run by the
+     * CommandExecutor rather than on the socket thread. Commands from this
+     * socket that are run there are still run one at a time, in the order
+     * they were received.
+     *
+     * Anything else changes account or connection state, which is not
+     * thread-safe, so is run here on the socket thread. The exception is
+     * while earlier commands from this socket are still waiting in the queue,
+     * in which case it is queued behind them so that commands are always run
+     * (and their output sent) in the order they were received.
+     *
+     * @param bits This is the command and its parameters.
+     *             bits[0] is the command, bits[1]..bits[n] are the params.
+     */
+    private void runBotCommand(final String[] bits) {
+        final Runnable command = () -> {
+            final CommandOutputBuffer co = new CommandOutputBuffer(this);
+            handleBotCommand(bits, co);
+            co.send();
+        };
+
+        final boolean background = myAccount != null && bits.length > 0
+                && myAccount.getCommandManager().getMatchingCommand(bits[0], myAccount.isAdmin() && !isReadOnly())
+                        .map(e -> e.getValue().allowBackground()).orElse(false);
+
+        if (background || queuedCommands.get() > 0) {
+            queuedCommands.incrementAndGet();
+            commandQueue.execute(() -> {
+                try {
+                    command.run();
+                } finally {
+                    queuedCommands.decrementAndGet();
+                }
+            });
+        } else {
+            command.run();
+        }
+    }
+
     /**
      * Handle a command sent to the bot
      *
@@ -1162,39 +1360,45 @@ public class UserSocket extends ConnectedSocket {
 
         // for (String[] s : sections) { System.out.println(Arrays.toString(s)); }
 
-        // Run the actual command.
         if (sections.isEmpty()) {
             output.addBotMessage("You must specify a command.");
-        } else {
-            if (doBotCommand(sections.get(0), output)) {
-                // Store current messages.
-                final List<String> oldMessages = output.getMessages();
-
-                // Now run any filters. If any of them fail or throw exceptions,
-                // we will restore the commandoutput back to unfiltered and not
-                // run any more.
-                String[] section = new String[0];
-                try {
-                    if (sections.size() > 1) {
-                        for (int i = 1; i < sections.size(); i++) {
-                            section = sections.get(i);
-                            final CommandOutputFilter cof = CommandOutputFilterManager.getFilter(section[0]);
-                            final String[] filterParams = section.length > 1 ? Arrays.copyOfRange(section, 1, section.length) : new String[0];
-
-                            if (cof != null) {
-                                cof.runFilter(filterParams, output);
-                            } else {
-                                throw new CommandOutputFilterException("Unknown filter.");
-                            }
-                        }
-                    }
-                } catch (final CommandOutputFilterException ex) {
-                    output.setMessages(oldMessages);
-                    output.addBotMessage("--------------------------------------");
-                    output.addBotMessage("Error with filter: %s", Arrays.toString(section));
-                    output.addBotMessage("Reason: %s", ex.getMessage());
+            return;
+        }
+
+        // Set up any filters before running the command, so that the output
+        // is streamed through them as it is produced. If any of them are not
+        // valid, the command is run unfiltered and the error shown after.
+        final List<CommandOutputFilter> filters = new ArrayList<>();
+        final List<String[]> filterParams = new ArrayList<>();
+        String[] section = new String[0];
+        CommandOutputFilterException filterError = null;
+        try {
+            for (int i = 1; i < sections.size(); i++) {
+                section = sections.get(i);
+                final CommandOutputFilter cof = CommandOutputFilterManager.getFilter(section[0]);
+                if (cof == null) {
+                    throw new CommandOutputFilterException("Unknown filter.");
                 }
+                filters.add(cof);
+                filterParams.add(section.length > 1 ? Arrays.copyOfRange(section, 1, section.length) : new String[0]);
+            }
+
+            CommandOutputSink sink = output.getUserSink();
+            for (int i = filters.size() - 1; i >= 0; i--) {
+                section = sections.get(i + 1);
+                sink = filters.get(i).getSink(filterParams.get(i), sink);
             }
+            output.stream(sink);
+        } catch (final CommandOutputFilterException ex) {
+            output.stream(output.getUserSink());
+            filterError = ex;
+        }
+
+        // Run the actual command.
+        if (doBotCommand(sections.get(0), output) && filterError != null) {
+            output.addBotMessage("--------------------------------------");
+            output.addBotMessage("Error with filter: %s", Arrays.toString(section));
+            output.addBotMessage("Reason: %s", filterError.getMessage());
         }
     }
 
@@ -1213,6 +1417,8 @@ public class UserSocket extends ConnectedSocket {
                 return true;
             }
         } catch (CommandNotFoundException c) {
+            // Filters only make sense for the output of actual commands.
+            output.skipFilters();
             if (DFBnc.getBNC().getConfig().getOptionBool("general", "allowshortcommands") && bits.length > 0) {
                 final SortedMap<String, Command> cmds = new TreeMap<>(myAccount.getCommandManager().getAllCommands(bits[0], (myAccount.isAdmin() && !isReadOnly())));
                 if (cmds.size() > 0) {
@@ -1238,6 +1444,7 @@ public class UserSocket extends ConnectedSocket {
             }
             output.addBotMessage("Unknown command '%s' Please try 'show commands'", (bits.length > 0 ? bits[0] : ""));
         } catch (CommandException e) {
+            output.skipFilters();
             output.addBotMessage("Exception with command '%s': %s", (bits.length > 0 ? bits[0] : ""), e.getMessage());
             e.printStackTrace();
             return false;
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2006-2017 DFBnc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.dfbnc.util;
+
+import java.io.IOException;
+
+/**
+ * A store of recent messages for a channel (or private messages), that can be
+ * replayed to clients when they attach.
+ *
+ * Messages are kept in time order. A message that is added with an earlier
+ * time than the message before it is stored with the time of that message
+ * instead, so that views can find their first message by binary search.
+ */
+public interface Backbuffer {
+
+    /**
+     * Add a message to this backbuffer, discarding the oldest message if the
+     * backbuffer is full.
+     *
+     * @param time Time the message occurred
+     * @param message The message that occurred
+     */
+    void add(final long time, final String message);
+
+    /**
+     * Get the maximum number of messages this backbuffer stores.
+     *
+     * @return Current capacity of this backbuffer.
+     */
+    int getCapacity();
+
+    /**
+     * Change the maximum number of messages this backbuffer stores, discarding
+     * the oldest messages if needed.
+     *
+     * @param capacity New capacity for this backbuffer.
+     */
+    void setCapacity(final int capacity);
+
+    /**
+     * Get the number of messages currently stored.
+     *
+     * @return Number of messages currently stored.
+     */
+    int size();
+
+    /**
+     * Check if this backbuffer is empty.
+     *
+     * @return True if there are no messages stored.
+     */
+    default boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Get a view of (at most) the newest messages in this backbuffer.
+     *
+     * @param max Maximum number of messages to return.
+     * @return View of the newest messages, oldest first.
+     */
+    default Iterable<BackbufferMessage> tail(final int max) {
+        return tail(max, Long.MIN_VALUE);
+    }
+
+    /**
+     * Get a view of all the messages in this backbuffer that occurred at or
+     * after the given time.
+     *
+     * @param since Earliest time of messages to return.
+     * @return View of the messages, oldest first.
+     */
+    default Iterable<BackbufferMessage> since(final long since) {
+        return tail(Integer.MAX_VALUE, since);
+    }
+
+    /**
+     * Get a view of (at most) the newest messages in this backbuffer that
+     * occurred at or after the given time.
+     *
+     * Iterating the view must not copy the backbuffer, and must be safe while
+     * other threads keep adding messages. Messages added after an iterator is
+     * created are not returned by it.
+     *
+     * @param max Maximum number of messages to return.
+     * @param since Earliest time of messages to return.
+     * @return View of the newest messages, oldest first.
+     */
+    Iterable<BackbufferMessage> tail(final int max, final long since);
+
+    /**
+     * Release any resources used by this backbuffer.
+     *
+     * @throws IOException If there is a problem releasing resources
+     */
+    default void close() throws IOException {
+    }
+
+    /**
+     * Release any resources used by this backbuffer, and discard anything it
+     * has stored. A deleted backbuffer must not be used again.
+     *
+     * @throws IOException If there is a problem discarding stored messages
+     */
+    default void delete() throws IOException {
+        close();
+    }
+}
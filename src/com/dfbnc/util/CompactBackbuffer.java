@@ -0,0 +1,347 @@
+/*
+ * Copyright (c) 2006-2017 DFBnc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.dfbnc.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Memory-efficient backbuffer.
+ *
+ * Rather than keeping a String (and a BackbufferMessage) for every line, this
+ * stores each message in columns: the time in a long[], the message body as
+ * UTF-8 bytes, and the start of the line (source, command and target) as a
+ * reference into a table of prefixes shared by all messages in the buffer.
+ * The full line is only rebuilt when the backbuffer is replayed.
+ *
+ * Messages are stored in a circular buffer, so adding and evicting are O(1).
+ */
+public class CompactBackbuffer implements Backbuffer {
+
+    /** Initial size of the backing arrays. */
+    private static final int INITIAL_SIZE = 16;
+
+    /** Time of each message. */
+    private long[] times;
+
+    /** Prefix ID of each message. */
+    private int[] prefixes;
+
+    /** UTF-8 encoded body of each message. */
+    private byte[][] bodies;
+
+    /** Table of prefixes used by stored messages. */
+    private final PrefixTable prefixTable = new PrefixTable();
+
+    /** Index in the backing arrays of the oldest message. */
+    private int head;
+
+    /** Number of messages currently stored. */
+    private int size;
+
+    /** Capacity of the buffer. */
+    private int capacity;
+
+    /** Total number of messages ever added, used as a sequence number. */
+    private long added;
+
+    /** Time of the newest message. */
+    private long lastTime = Long.MIN_VALUE;
+
+    /**
+     * Creates a new CompactBackbuffer with the specified capacity.
+     *
+     * @param capacity The capacity for this buffer.
+     */
+    public CompactBackbuffer(final int capacity) {
+        this.capacity = Math.max(0, capacity);
+        final int length = Math.min(this.capacity, INITIAL_SIZE);
+        times = new long[length];
+        prefixes = new int[length];
+        bodies = new byte[length][];
+    }
+
+    @Override
+    public synchronized int getCapacity() {
+        return capacity;
+    }
+
+    @Override
+    public synchronized void setCapacity(final int newValue) {
+        capacity = Math.max(0, newValue);
+        final int keep = Math.min(size, capacity);
+        if (keep < size || times.length > capacity) {
+            resize(Math.min(capacity, Math.max(keep, INITIAL_SIZE)), keep);
+        }
+    }
+
+    /**
+     * Copy the newest messages into new backing arrays.
+     *
+     * @param length Length of the new backing arrays.
+     * @param keep Number of (newest) messages to keep.
+     */
+    private void resize(final int length, final int keep) {
+        final long[] newTimes = new long[length];
+        final int[] newPrefixes = new int[length];
+        final byte[][] newBodies = new byte[length][];
+        final int skip = size - keep;
+        for (int i = 0; i < size; i++) {
+            final int slot = (head + i) % times.length;
+            if (i < skip) {
+                prefixTable.release(prefixes[slot]);
+            } else {
+                newTimes[i - skip] = times[slot];
+                newPrefixes[i - skip] = prefixes[slot];
+                newBodies[i - skip] = bodies[slot];
+            }
+        }
+        times = newTimes;
+        prefixes = newPrefixes;
+        bodies = newBodies;
+        head = 0;
+        size = keep;
+    }
+
+    @Override
+    public synchronized void add(final long time, final String message) {
+        if (capacity == 0) {
+            return;
+        }
+
+        if (size == times.length && times.length < capacity) {
+            resize(Math.min(capacity, Math.max(INITIAL_SIZE, times.length * 2)), size);
+        }
+
+        final int slot;
+        if (size < times.length) {
+            slot = (head + size) % times.length;
+            size++;
+        } else {
+            slot = head;
+            prefixTable.release(prefixes[slot]);
+            head = (head + 1) % times.length;
+        }
+
+        // Everything up to the trailing parameter (":nick!ident@host PRIVMSG
+        // #channel :") is likely to be repeated, so only that goes in the
+        // prefix table.
+        final int split = message.indexOf(" :");
+        final String prefix = (split < 0) ? "" : message.substring(0, split + 2);
+        final String body = (split < 0) ? message : message.substring(split + 2);
+
+        lastTime = Math.max(lastTime, time);
+        times[slot] = lastTime;
+        prefixes[slot] = prefixTable.intern(prefix);
+        bodies[slot] = body.getBytes(StandardCharsets.UTF_8);
+        added++;
+    }
+
+    @Override
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Rebuild the message with the given sequence number.
+     *
+     * @param sequence Sequence number of message to get
+     * @return The message, or null if it has been evicted or not yet added.
+     */
+    private BackbufferMessage getSequence(final long sequence) {
+        final long oldest = added - size;
+        if (sequence < oldest || sequence >= added) {
+            return null;
+        }
+        final int slot = (head + (int) (sequence - oldest)) % times.length;
+        return new BackbufferMessage(times[slot], prefixTable.get(prefixes[slot]) + new String(bodies[slot], StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Get the time of the message with the given sequence number, which must
+     * not have been evicted.
+     *
+     * @param sequence Sequence number of message
+     * @return Time of the message
+     */
+    private long getTime(final long sequence) {
+        return times[(head + (int) (sequence - (added - size))) % times.length];
+    }
+
+    /**
+     * Find the first message at or after the given time, by binary search.
+     *
+     * @param from Sequence number to start searching at
+     * @param to Sequence number after the last message to search
+     * @param since Time to search for
+     * @return Sequence number of the first message at or after since, or
+     *         {@code to} if there is none.
+     */
+    private long findFirst(final long from, final long to, final long since) {
+        long low = from;
+        long high = to;
+        while (low < high) {
+            final long middle = (low + high) >>> 1;
+            if (getTime(middle) < since) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    @Override
+    public Iterable<BackbufferMessage> tail(final int max, final long since) {
+        return () -> new TailIterator(max, since);
+    }
+
+    /**
+     * Iterator over the newest messages, used by {@link #tail(int, long)}.
+     */
+    private class TailIterator implements Iterator<BackbufferMessage> {
+        /** Sequence number of the next message to return. */
+        private long next;
+
+        /** Sequence number after the last message to return. */
+        private final long end;
+
+        /** Message to be returned by the next call to next(). */
+        private BackbufferMessage nextMessage;
+
+        /**
+         * Create a new TailIterator.
+         *
+         * @param max Maximum number of messages to return.
+         * @param since Earliest time of messages to return.
+         */
+        TailIterator(final int max, final long since) {
+            synchronized (CompactBackbuffer.this) {
+                end = added;
+                next = findFirst(end - Math.min(Math.max(0, max), size), end, since);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (nextMessage == null) {
+                synchronized (CompactBackbuffer.this) {
+                    next = Math.max(next, added - size);
+                    if (next < end) {
+                        nextMessage = getSequence(next++);
+                    }
+                }
+            }
+            return nextMessage != null;
+        }
+
+        @Override
+        public BackbufferMessage next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final BackbufferMessage result = nextMessage;
+            nextMessage = null;
+            return result;
+        }
+    }
+
+    /**
+     * Reference-counted table of strings shared between messages.
+     */
+    private static class PrefixTable {
+        /** Map of prefix to ID. */
+        private final Map<String, Integer> ids = new HashMap<>();
+
+        /** Prefix for each ID. */
+        private String[] values = new String[INITIAL_SIZE];
+
+        /** Number of messages using each ID. */
+        private int[] references = new int[INITIAL_SIZE];
+
+        /** IDs that are no longer in use. */
+        private int[] free = new int[INITIAL_SIZE];
+
+        /** Number of entries in free. */
+        private int freeCount;
+
+        /** Number of IDs ever allocated. */
+        private int allocated;
+
+        /**
+         * Get the ID for the given prefix, adding it to the table if needed.
+         * The caller must release the ID when it is no longer used.
+         *
+         * @param value Prefix to get ID for
+         * @return ID for the prefix
+         */
+        int intern(final String value) {
+            Integer id = ids.get(value);
+            if (id == null) {
+                if (freeCount > 0) {
+                    id = free[--freeCount];
+                } else {
+                    if (allocated == values.length) {
+                        values = Arrays.copyOf(values, allocated * 2);
+                        references = Arrays.copyOf(references, allocated * 2);
+                    }
+                    id = allocated++;
+                }
+                values[id] = value;
+                ids.put(value, id);
+            }
+            references[id]++;
+            return id;
+        }
+
+        /**
+         * Release a reference to the given ID, removing the prefix from the
+         * table if nothing else uses it.
+         *
+         * @param id ID to release
+         */
+        void release(final int id) {
+            if (--references[id] == 0) {
+                ids.remove(values[id]);
+                values[id] = null;
+                if (freeCount == free.length) {
+                    free = Arrays.copyOf(free, freeCount * 2);
+                }
+                free[freeCount++] = id;
+            }
+        }
+
+        /**
+         * Get the prefix for the given ID.
+         *
+         * @param id ID to look up
+         * @return The prefix
+         */
+        String get(final int id) {
+            return values[id];
+        }
+    }
+}
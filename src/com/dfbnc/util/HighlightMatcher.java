@@ -0,0 +1,204 @@
+/*
+ * Copyright (c) 2006-2017 DFBnc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.dfbnc.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Checks lines against a list of highlight patterns.
+ *
+ * Each pattern is a case-insensitive regular expression that can match
+ * anywhere in a line. All the work of preparing the patterns is done once, when
+ * the matcher is created, so that checking a line is cheap:
+ *
+ * - Patterns that don't use any regex syntax (which is most of them, eg
+ *   nicknames) are combined into a single Aho-Corasick automaton, so that all
+ *   of them are checked in one pass over the line.
+ * - Other patterns are compiled once.
+ * - Patterns that are not valid regular expressions are ignored.
+ */
+public class HighlightMatcher {
+
+    /** Matcher that never matches anything. */
+    public static final HighlightMatcher EMPTY = new HighlightMatcher(Collections.<String>emptyList());
+
+    /** Characters that make a pattern more than a simple literal. */
+    private static final String REGEX_CHARS = "\\^$.|?*+()[]{}";
+
+    /** Transitions from each state of the automaton. */
+    private final List<Map<Character, Integer>> transitions = new ArrayList<>();
+
+    /** Failure link for each state of the automaton. */
+    private int[] failure;
+
+    /** Whether reaching each state of the automaton means a pattern matched. */
+    private boolean[] accepting;
+
+    /** Patterns that need a full regular expression. */
+    private final List<Pattern> patterns = new ArrayList<>();
+
+    /**
+     * Create a new HighlightMatcher.
+     *
+     * @param highlights Patterns to match.
+     */
+    public HighlightMatcher(final List<String> highlights) {
+        final List<String> literals = new ArrayList<>();
+        for (String highlight : highlights) {
+            final String h = highlight.toLowerCase();
+            if (isLiteral(h)) {
+                literals.add(h);
+            } else {
+                try {
+                    patterns.add(Pattern.compile(".*" + h + ".*"));
+                } catch (final PatternSyntaxException e) {
+                    // Invalid patterns never highlight anything.
+                }
+            }
+        }
+        buildAutomaton(literals);
+    }
+
+    /**
+     * Does the given pattern match only itself?
+     *
+     * @param pattern Pattern to check
+     * @return True if the pattern contains no regex syntax.
+     */
+    private static boolean isLiteral(final String pattern) {
+        for (int i = 0; i < pattern.length(); i++) {
+            if (REGEX_CHARS.indexOf(pattern.charAt(i)) != -1) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Build the automaton for the literal patterns.
+     *
+     * @param literals Literal patterns (already lower case)
+     */
+    private void buildAutomaton(final List<String> literals) {
+        transitions.add(new HashMap<>());
+        final List<Boolean> accept = new ArrayList<>();
+        accept.add(false);
+
+        // Build a trie of all the patterns.
+        for (String literal : literals) {
+            int state = 0;
+            for (int i = 0; i < literal.length(); i++) {
+                final Integer next = transitions.get(state).get(literal.charAt(i));
+                if (next == null) {
+                    transitions.add(new HashMap<>());
+                    accept.add(false);
+                    transitions.get(state).put(literal.charAt(i), transitions.size() - 1);
+                    state = transitions.size() - 1;
+                } else {
+                    state = next;
+                }
+            }
+            accept.set(state, true);
+        }
+
+        failure = new int[transitions.size()];
+        accepting = new boolean[transitions.size()];
+        for (int i = 0; i < accepting.length; i++) {
+            accepting[i] = accept.get(i);
+        }
+
+        // Then work out where to go when a character doesn't match, in order
+        // of depth so that shallower states are always done first.
+        final Queue<Integer> queue = new ArrayDeque<>(transitions.get(0).values());
+        while (!queue.isEmpty()) {
+            final int state = queue.remove();
+            for (Map.Entry<Character, Integer> entry : transitions.get(state).entrySet()) {
+                final int child = entry.getValue();
+                int fallback = failure[state];
+                while (fallback != 0 && !transitions.get(fallback).containsKey(entry.getKey())) {
+                    fallback = failure[fallback];
+                }
+                final Integer target = transitions.get(fallback).get(entry.getKey());
+                failure[child] = (target == null || target == child) ? 0 : target;
+                accepting[child] |= accepting[failure[child]];
+                queue.add(child);
+            }
+        }
+    }
+
+    /**
+     * Is this matcher unable to match anything?
+     *
+     * @return True if there are no valid patterns.
+     */
+    public boolean isEmpty() {
+        return transitions.size() == 1 && !accepting[0] && patterns.isEmpty();
+    }
+
+    /**
+     * Does the given line match any of the patterns?
+     *
+     * @param line Line to check
+     * @return True if the line matches any pattern.
+     */
+    public boolean matches(final String line) {
+        if (isEmpty()) {
+            return false;
+        }
+
+        final String lowerLine = line.toLowerCase();
+        if (accepting[0]) {
+            // An empty pattern matches everything.
+            return true;
+        }
+
+        int state = 0;
+        for (int i = 0; i < lowerLine.length(); i++) {
+            final char c = lowerLine.charAt(i);
+            Integer next = transitions.get(state).get(c);
+            while (next == null && state != 0) {
+                state = failure[state];
+                next = transitions.get(state).get(c);
+            }
+            state = next == null ? 0 : next;
+            if (accepting[state]) {
+                return true;
+            }
+        }
+
+        for (Pattern pattern : patterns) {
+            if (pattern.matcher(lowerLine).matches()) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
@@ -0,0 +1,530 @@
+/*
+ * Copyright (c) 2006-2017 DFBnc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.dfbnc.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Backbuffer stored on disk.
+ *
+ * Messages are appended to a memory-mapped segment file, and the time and
+ * position of each message is stored in a separate memory-mapped index file.
+ * Only the index header is kept on the heap, so large backbuffers cost very
+ * little memory, and as the files are reopened when a new MappedBackbuffer is
+ * created for the same name the backbuffer survives reconnects and restarts.
+ *
+ * Evicted messages stay in the segment until there are as many evicted
+ * messages as live ones, at which point the live messages are copied into new
+ * files which replace the old ones. Both files start with the same random
+ * stamp, which is changed whenever they are rewritten, so a segment and index
+ * from different compactions are never used together.
+ */
+public class MappedBackbuffer implements Backbuffer {
+
+    /** Magic number at the start of the index file. */
+    private static final int MAGIC = 0x44464242;
+
+    /** Version of the file format. */
+    private static final int VERSION = 1;
+
+    /** Size of the index header (magic, version, message count, stamp). */
+    private static final int HEADER_SIZE = 24;
+
+    /** Size of the segment header (stamp). */
+    private static final int SEGMENT_HEADER_SIZE = 8;
+
+    /** Size of each index entry (time, segment offset). */
+    private static final int ENTRY_SIZE = 16;
+
+    /** Minimum size to map for each file. */
+    private static final int INITIAL_MAP_SIZE = 64 * 1024;
+
+    /** Minimum number of evicted messages before the files are compacted. */
+    private static final int MIN_COMPACT = 1024;
+
+    /** Segment file. */
+    private final File segmentFile;
+
+    /** Index file. */
+    private final File indexFile;
+
+    /** Segment file being written by a compaction. */
+    private final File newSegmentFile;
+
+    /** Index file being written by a compaction. */
+    private final File newIndexFile;
+
+    /** Channel for the segment file. */
+    private FileChannel segmentChannel;
+
+    /** Channel for the index file. */
+    private FileChannel indexChannel;
+
+    /** Mapped segment file. */
+    private MappedByteBuffer segment;
+
+    /** Mapped index file. */
+    private MappedByteBuffer index;
+
+    /** Number of messages in the files, including evicted ones. */
+    private int count;
+
+    /** Index of the oldest message that has not been evicted. */
+    private int start;
+
+    /** Offset in the segment file to write the next message at. */
+    private int segmentEnd;
+
+    /** Sequence number of the first message in the files. */
+    private long base;
+
+    /** Stamp at the start of both files. */
+    private long stamp;
+
+    /** Capacity of the buffer. */
+    private int capacity;
+
+    /** Time of the newest message. */
+    private long lastTime = Long.MIN_VALUE;
+
+    /** Has this backbuffer been closed? */
+    private boolean closed;
+
+    /**
+     * Creates a new MappedBackbuffer, opening any existing files.
+     *
+     * @param file Base name of the files to use, ".seg" and ".idx" are appended.
+     * @param capacity The capacity for this buffer.
+     * @throws IOException If the files can not be opened.
+     */
+    public MappedBackbuffer(final File file, final int capacity) throws IOException {
+        this.segmentFile = new File(file.getPath() + ".seg");
+        this.indexFile = new File(file.getPath() + ".idx");
+        this.newSegmentFile = new File(segmentFile.getPath() + ".tmp");
+        this.newIndexFile = new File(indexFile.getPath() + ".tmp");
+        this.capacity = Math.max(0, capacity);
+
+        final File directory = file.getAbsoluteFile().getParentFile();
+        if (directory != null && !directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Unable to create directory: " + directory);
+        }
+
+        recover();
+        open();
+        if (!readHeader()) {
+            reset();
+        }
+        start = Math.max(0, count - this.capacity);
+    }
+
+    /**
+     * Tidy up after a compaction that did not finish.
+     *
+     * The segment is replaced before the index, so if the new segment file
+     * still exists then the old files are untouched, otherwise the new index
+     * file is the one that goes with the segment.
+     *
+     * @throws IOException If the files can not be tidied up.
+     */
+    private void recover() throws IOException {
+        if (newSegmentFile.exists()) {
+            Files.deleteIfExists(newSegmentFile.toPath());
+            Files.deleteIfExists(newIndexFile.toPath());
+        } else if (newIndexFile.exists()) {
+            Files.move(newIndexFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    /**
+     * Open and map the segment and index files.
+     *
+     * @throws IOException If the files can not be opened.
+     */
+    private void open() throws IOException {
+        segmentChannel = new RandomAccessFile(segmentFile, "rw").getChannel();
+        indexChannel = new RandomAccessFile(indexFile, "rw").getChannel();
+        segment = map(segmentChannel, INITIAL_MAP_SIZE);
+        index = map(indexChannel, INITIAL_MAP_SIZE);
+    }
+
+    /**
+     * Map the given file, with at least the given size.
+     *
+     * @param channel Channel to map
+     * @param size Minimum size to map
+     * @return The mapped file
+     * @throws IOException If the file can not be mapped.
+     */
+    private static MappedByteBuffer map(final FileChannel channel, final long size) throws IOException {
+        final long mapSize = Math.max(size, channel.size());
+        if (mapSize > Integer.MAX_VALUE) {
+            throw new IOException("Backbuffer file too large");
+        }
+        return channel.map(FileChannel.MapMode.READ_WRITE, 0, mapSize);
+    }
+
+    /**
+     * Read and validate the index header of existing files.
+     *
+     * @return True if the existing files are usable.
+     */
+    private boolean readHeader() {
+        if (index.getInt(0) != MAGIC || index.getInt(4) != VERSION) {
+            return false;
+        }
+        final long storedCount = index.getLong(8);
+        if (storedCount < 0 || HEADER_SIZE + storedCount * ENTRY_SIZE > index.capacity()) {
+            return false;
+        }
+        if (index.getLong(16) != segment.getLong(0)) {
+            // The files are from different compactions.
+            return false;
+        }
+        stamp = index.getLong(16);
+        count = (int) storedCount;
+        segmentEnd = SEGMENT_HEADER_SIZE;
+        if (count > 0) {
+            final long lastOffset = index.getLong(entryPosition(count - 1) + 8);
+            if (lastOffset < SEGMENT_HEADER_SIZE || lastOffset + 4 > segment.capacity()) {
+                return false;
+            }
+            final long end = lastOffset + 4 + segment.getInt((int) lastOffset);
+            if (end > segment.capacity()) {
+                return false;
+            }
+            segmentEnd = (int) end;
+            lastTime = index.getLong(entryPosition(count - 1));
+        }
+        return true;
+    }
+
+    /**
+     * Empty the files, and give them a new stamp.
+     */
+    private void reset() {
+        count = 0;
+        segmentEnd = SEGMENT_HEADER_SIZE;
+        stamp = ThreadLocalRandom.current().nextLong();
+        segment.putLong(0, stamp);
+        index.putInt(0, MAGIC);
+        index.putInt(4, VERSION);
+        index.putLong(8, count);
+        index.putLong(16, stamp);
+    }
+
+    /**
+     * Get the position in the index file of the given entry.
+     *
+     * @param entry Entry number
+     * @return Position of the entry
+     */
+    private static int entryPosition(final int entry) {
+        return HEADER_SIZE + entry * ENTRY_SIZE;
+    }
+
+    @Override
+    public synchronized int getCapacity() {
+        return capacity;
+    }
+
+    @Override
+    public synchronized void setCapacity(final int newValue) {
+        capacity = Math.max(0, newValue);
+        start = Math.max(start, count - capacity);
+    }
+
+    @Override
+    public synchronized void add(final long time, final String message) {
+        if (closed || capacity == 0) {
+            return;
+        }
+
+        final byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+        try {
+            if (count - start >= capacity && start >= Math.max(MIN_COMPACT, capacity)) {
+                compact();
+            }
+            ensureCapacity(bytes.length);
+        } catch (final IOException ex) {
+            // Nothing sensible can be done here, the message is dropped.
+            return;
+        }
+
+        segment.putInt(segmentEnd, bytes.length);
+        segment.position(segmentEnd + 4);
+        segment.put(bytes);
+
+        lastTime = Math.max(lastTime, time);
+        index.putLong(entryPosition(count), lastTime);
+        index.putLong(entryPosition(count) + 8, segmentEnd);
+
+        segmentEnd += 4 + bytes.length;
+        count++;
+        index.putLong(8, count);
+        start = Math.max(start, count - capacity);
+    }
+
+    /**
+     * Ensure that the mapped files are large enough to append a message.
+     *
+     * @param length Length of the message to append.
+     * @throws IOException If the files can not be remapped.
+     */
+    private void ensureCapacity(final int length) throws IOException {
+        final long segmentNeeded = (long) segmentEnd + 4 + length;
+        if (segmentNeeded > segment.capacity()) {
+            segment = map(segmentChannel, Math.max(segmentNeeded, (long) segment.capacity() * 2));
+        }
+        final long indexNeeded = (long) entryPosition(count) + ENTRY_SIZE;
+        if (indexNeeded > index.capacity()) {
+            index = map(indexChannel, Math.max(indexNeeded, (long) index.capacity() * 2));
+        }
+    }
+
+    /**
+     * Rewrite the files so that they only contain messages that have not been
+     * evicted.
+     *
+     * The new files are written alongside the old ones and then moved over
+     * them, the index last. If that fails part way, the files are reopened
+     * anyway, and emptied if they no longer match.
+     *
+     * @throws IOException If the files can not be rewritten.
+     */
+    private void compact() throws IOException {
+        final int live = count - start;
+        final int startOffset = (live == 0) ? segmentEnd : (int) index.getLong(entryPosition(start) + 8);
+        final long newStamp = ThreadLocalRandom.current().nextLong();
+        final long end = base + count;
+
+        try (FileChannel newSegment = new RandomAccessFile(newSegmentFile, "rw").getChannel();
+             FileChannel newIndex = new RandomAccessFile(newIndexFile, "rw").getChannel()) {
+            newSegment.truncate(0);
+            newIndex.truncate(0);
+
+            final ByteBuffer segmentHeader = ByteBuffer.allocate(SEGMENT_HEADER_SIZE);
+            segmentHeader.putLong(newStamp).flip();
+            while (segmentHeader.hasRemaining()) {
+                newSegment.write(segmentHeader);
+            }
+
+            final ByteBuffer segmentData = segment.duplicate();
+            segmentData.position(startOffset).limit(segmentEnd);
+            while (segmentData.hasRemaining()) {
+                newSegment.write(segmentData);
+            }
+
+            final ByteBuffer indexData = ByteBuffer.allocate(entryPosition(live));
+            indexData.putInt(MAGIC).putInt(VERSION).putLong(live).putLong(newStamp);
+            for (int i = start; i < count; i++) {
+                indexData.putLong(index.getLong(entryPosition(i)));
+                indexData.putLong(index.getLong(entryPosition(i) + 8) - startOffset + SEGMENT_HEADER_SIZE);
+            }
+            indexData.flip();
+            while (indexData.hasRemaining()) {
+                newIndex.write(indexData);
+            }
+
+            newSegment.force(true);
+            newIndex.force(true);
+        }
+
+        segmentChannel.close();
+        indexChannel.close();
+        boolean replaced = false;
+        try {
+            Files.move(newSegmentFile.toPath(), segmentFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Files.move(newIndexFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            replaced = true;
+        } finally {
+            open();
+            if (replaced) {
+                base += start;
+                start = 0;
+            }
+            if (!readHeader()) {
+                // Only the segment was replaced, so none of the messages can
+                // be read any more.
+                base = end;
+                start = 0;
+                reset();
+            }
+            newSegmentFile.delete();
+            newIndexFile.delete();
+        }
+    }
+
+    @Override
+    public synchronized int size() {
+        return count - start;
+    }
+
+    /**
+     * Read the message with the given sequence number.
+     *
+     * @param sequence Sequence number of message to get
+     * @return The message, or null if it has been evicted or not yet added.
+     */
+    private BackbufferMessage getSequence(final long sequence) {
+        if (sequence < base + start || sequence >= base + count) {
+            return null;
+        }
+        final int entry = (int) (sequence - base);
+        final long time = index.getLong(entryPosition(entry));
+        final int offset = (int) index.getLong(entryPosition(entry) + 8);
+        final byte[] bytes = new byte[segment.getInt(offset)];
+        segment.position(offset + 4);
+        segment.get(bytes);
+        return new BackbufferMessage(time, new String(bytes, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Get the time of the message with the given sequence number, which must
+     * not have been evicted.
+     *
+     * @param sequence Sequence number of message
+     * @return Time of the message
+     */
+    private long getTime(final long sequence) {
+        return index.getLong(entryPosition((int) (sequence - base)));
+    }
+
+    /**
+     * Find the first message at or after the given time, by binary search.
+     *
+     * @param from Sequence number to start searching at
+     * @param to Sequence number after the last message to search
+     * @param since Time to search for
+     * @return Sequence number of the first message at or after since, or
+     *         {@code to} if there is none.
+     */
+    private long findFirst(final long from, final long to, final long since) {
+        long low = from;
+        long high = to;
+        while (low < high) {
+            final long middle = (low + high) >>> 1;
+            if (getTime(middle) < since) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    @Override
+    public Iterable<BackbufferMessage> tail(final int max, final long since) {
+        return () -> new TailIterator(max, since);
+    }
+
+    /**
+     * Flush any changes to disk and close the files. Once closed, new
+     * messages are ignored.
+     *
+     * @throws IOException If the files can not be closed.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            segment.force();
+            index.force();
+            segmentChannel.close();
+            indexChannel.close();
+        }
+    }
+
+    /**
+     * Close this backbuffer, and delete its files.
+     *
+     * @throws IOException If the files can not be deleted.
+     */
+    @Override
+    public synchronized void delete() throws IOException {
+        close();
+        Files.deleteIfExists(segmentFile.toPath());
+        Files.deleteIfExists(indexFile.toPath());
+        Files.deleteIfExists(newSegmentFile.toPath());
+        Files.deleteIfExists(newIndexFile.toPath());
+    }
+
+    /**
+     * Iterator over the newest messages, used by {@link #tail(int, long)}.
+     */
+    private class TailIterator implements Iterator<BackbufferMessage> {
+        /** Sequence number of the next message to return. */
+        private long next;
+
+        /** Sequence number after the last message to return. */
+        private final long end;
+
+        /** Message to be returned by the next call to next(). */
+        private BackbufferMessage nextMessage;
+
+        /**
+         * Create a new TailIterator.
+         *
+         * @param max Maximum number of messages to return.
+         * @param since Earliest time of messages to return.
+         */
+        TailIterator(final int max, final long since) {
+            synchronized (MappedBackbuffer.this) {
+                end = base + count;
+                next = findFirst(end - Math.min(Math.max(0, max), count - start), end, since);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (nextMessage == null) {
+                synchronized (MappedBackbuffer.this) {
+                    next = Math.max(next, base + start);
+                    if (next < end) {
+                        nextMessage = getSequence(next++);
+                    }
+                }
+            }
+            return nextMessage != null;
+        }
+
+        @Override
+        public BackbufferMessage next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final BackbufferMessage result = nextMessage;
+            nextMessage = null;
+            return result;
+        }
+    }
+}
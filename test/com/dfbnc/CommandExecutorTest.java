@@ -0,0 +1,101 @@
+package com.dfbnc;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link com.dfbnc.CommandExecutor}.
+ */
+public class CommandExecutorTest {
+
+    private CommandExecutor executor;
+
+    @Before
+    public void setUp() {
+        executor = new CommandExecutor(4);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Tests that commands on the same queue run in the order they were added.
+     */
+    @Test
+    public void testQueueKeepsOrder() throws InterruptedException {
+        // Given a queue
+        final Executor queue = executor.getQueue();
+        final List<Integer> result = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch done = new CountDownLatch(100);
+
+        // When lots of commands are added to it
+        for (int i = 0; i < 100; i++) {
+            final int value = i;
+            queue.execute(() -> {
+                result.add(value);
+                done.countDown();
+            });
+        }
+
+        // Then they are run in order
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, (int) result.get(i));
+        }
+    }
+
+    /**
+     * Tests that a slow command does not block other queues.
+     */
+    @Test
+    public void testSlowCommandDoesNotBlockOtherQueues() throws InterruptedException {
+        // Given a queue running a command that won't finish until released
+        final CountDownLatch release = new CountDownLatch(1);
+        executor.getQueue().execute(() -> {
+            try {
+                release.await();
+            } catch (final InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        // When a command is added to another queue
+        final CountDownLatch ran = new CountDownLatch(1);
+        executor.getQueue().execute(ran::countDown);
+
+        // Then it still runs
+        assertTrue(ran.await(5, TimeUnit.SECONDS));
+        release.countDown();
+    }
+
+    /**
+     * Tests that a command throwing an exception does not stop the queue.
+     */
+    @Test
+    public void testFailedCommandDoesNotStopQueue() throws InterruptedException {
+        // Given a queue with a command that throws
+        final Executor queue = executor.getQueue();
+        queue.execute(() -> { throw new IllegalStateException("Test"); });
+
+        // When another command is added
+        final CountDownLatch ran = new CountDownLatch(1);
+        queue.execute(ran::countDown);
+
+        // Then it is still run, and the failure is counted
+        assertTrue(ran.await(5, TimeUnit.SECONDS));
+        assertEquals(1, executor.getCommandsFailed());
+    }
+}
@@ -0,0 +1,92 @@
+package com.dfbnc;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link com.dfbnc.Scheduler}.
+ */
+public class SchedulerTest {
+
+    /** Scheduler being tested. */
+    private final Scheduler scheduler = new Scheduler(1);
+
+    @After
+    public void tearDown() {
+        scheduler.shutdown();
+    }
+
+    /**
+     * Tests that a delayed task is run and counted.
+     */
+    @Test
+    public void testSchedule() throws InterruptedException {
+        // Given a task that is scheduled to run once
+        final CountDownLatch latch = new CountDownLatch(1);
+        scheduler.schedule(latch::countDown, 10, TimeUnit.MILLISECONDS);
+
+        // When it has had time to run
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+
+        // Then it has been counted
+        assertEquals(1, scheduler.getTasksRun());
+        assertEquals(0, scheduler.getTasksFailed());
+    }
+
+    /**
+     * Tests that an exception doesn't stop a periodic task running again.
+     */
+    @Test
+    public void testPeriodicTaskSurvivesExceptions() throws InterruptedException {
+        // Given a periodic task that always throws an exception
+        final CountDownLatch latch = new CountDownLatch(4);
+        final ScheduledFuture<?> future = scheduler.scheduleWithFixedDelay(() -> {
+            latch.countDown();
+            throw new IllegalStateException("Test");
+        }, 0, 10, TimeUnit.MILLISECONDS);
+
+        // When it has had time to run several times
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        future.cancel(false);
+
+        // Then it kept running, and the earlier runs were counted as failures
+        assertTrue(scheduler.getTasksFailed() >= 3);
+    }
+
+    /**
+     * Tests that tasks which start late are reported.
+     */
+    @Test
+    public void testLatency() throws InterruptedException {
+        // Given a task that blocks the only thread for a while
+        final CountDownLatch latch = new CountDownLatch(1);
+        scheduler.schedule(() -> sleep(100), 0, TimeUnit.MILLISECONDS);
+
+        // When another task is due while it is running
+        scheduler.schedule(latch::countDown, 10, TimeUnit.MILLISECONDS);
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+
+        // Then the second task is reported as late
+        assertTrue(scheduler.getMaxLatency() >= 50);
+    }
+
+    /**
+     * Sleep, ignoring interrupts.
+     *
+     * @param millis Time to sleep for
+     */
+    private static void sleep(final long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.dfbnc.authentication;
+
+import com.dfbnc.authentication.providers.ClientCertProvider;
+import com.dfbnc.sockets.UserSocket;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for {@link com.dfbnc.authentication.AuthListIndex}.
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class AuthListIndexTest {
+
+    private AuthProviderManager manager;
+
+    @Mock
+    private UserSocket user;
+
+    @Before
+    public void setUp() {
+        manager = new AuthProviderManager();
+        manager.addProvider(new ClientCertProvider());
+        manager.addProvider(new AuthProvider() {
+            @Override
+            public String getProviderName() {
+                return "TEST";
+            }
+
+            @Override
+            public String getExpectedParams() {
+                return "[yes|no]";
+            }
+
+            @Override
+            public boolean checkAuthentication(final UserSocket user, final String test) {
+                return test.equals("yes");
+            }
+
+            @Override
+            public String validateParams(final UserSocket user, final String subClientID, final String input) {
+                return input;
+            }
+        });
+        when(user.getClientCertFP()).thenReturn("BB");
+    }
+
+    /**
+     * Tests that a matching certificate is found wherever it is in the list.
+     */
+    @Test
+    public void testCertificateMatch() {
+        // Given an authlist with several certificates
+        final AuthListIndex index = new AuthListIndex(Arrays.asList(
+                "CLIENTCERT AA", "TEST no", "CLIENTCERT BB", "CLIENTCERT BB"), manager);
+
+        // Then the first entry for the socket's certificate is found
+        assertEquals(2, index.check(user));
+        assertEquals("CLIENTCERT", index.getProviderName(2));
+    }
+
+    /**
+     * Tests that sockets that match nothing are not authenticated.
+     */
+    @Test
+    public void testNoMatch() {
+        // Given an authlist without the socket's certificate
+        final AuthListIndex index = new AuthListIndex(Arrays.asList(
+                "CLIENTCERT AA", "TEST no", "UNKNOWN BB", "CLIENTCERT"), manager);
+
+        // Then nothing matches
+        assertEquals(-1, index.check(user));
+    }
+
+    /**
+     * Tests that earlier entries from other providers still take priority.
+     */
+    @Test
+    public void testListOrderKept() {
+        // Given an authlist where another provider passes before the certificate
+        final AuthListIndex before = new AuthListIndex(Arrays.asList(
+                "TEST no", "TEST yes", "CLIENTCERT BB"), manager);
+        // And one where it passes after the certificate
+        final AuthListIndex after = new AuthListIndex(Arrays.asList(
+                "CLIENTCERT BB", "TEST yes"), manager);
+
+        // Then the first passing entry is used
+        assertEquals(1, before.check(user));
+        assertEquals("TEST", before.getProviderName(1));
+        assertEquals(0, after.check(user));
+    }
+}
@@ -0,0 +1,97 @@
+package com.dfbnc.authentication;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link com.dfbnc.authentication.PasswordVerifier}.
+ */
+public class PasswordVerifierTest {
+
+    private PasswordVerifier verifier;
+
+    /** Latch that blocking checks wait on. */
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        verifier.shutdown();
+    }
+
+    /**
+     * Get a check that waits until the test finishes.
+     *
+     * @return Blocking check.
+     */
+    private Runnable blockingCheck() {
+        return () -> {
+            try {
+                release.await();
+            } catch (final InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        };
+    }
+
+    /**
+     * Tests that one address can't have more than its share of checks pending.
+     */
+    @Test
+    public void testPerAddressLimit() throws InterruptedException {
+        // Given a verifier allowing 2 checks per address
+        verifier = new PasswordVerifier(1, 10, 2);
+
+        // When an address submits more checks than that
+        assertTrue(verifier.submit("192.0.2.1", blockingCheck()));
+        assertTrue(verifier.submit("192.0.2.1", blockingCheck()));
+        final boolean third = verifier.submit("192.0.2.1", blockingCheck());
+
+        // Then the extra one is refused, but other addresses are still allowed
+        assertFalse(third);
+        assertEquals(1, verifier.getRejectedCount());
+        assertTrue(verifier.submit("192.0.2.2", blockingCheck()));
+    }
+
+    /**
+     * Tests that checks are refused once the queue is full.
+     */
+    @Test
+    public void testQueueLimit() {
+        // Given a verifier with one thread and room for one waiting check
+        verifier = new PasswordVerifier(1, 1, 5);
+
+        // When more checks are submitted than can be held
+        assertTrue(verifier.submit("192.0.2.1", blockingCheck()));
+        assertTrue(verifier.submit("192.0.2.2", blockingCheck()));
+        final boolean third = verifier.submit("192.0.2.3", blockingCheck());
+
+        // Then the extra one is refused
+        assertFalse(third);
+    }
+
+    /**
+     * Tests that finished checks no longer count towards the limit.
+     */
+    @Test
+    public void testFinishedChecksReleased() throws InterruptedException {
+        // Given a verifier allowing 1 check per address
+        verifier = new PasswordVerifier(1, 10, 1);
+
+        // When a check has finished
+        final CountDownLatch done = new CountDownLatch(1);
+        assertTrue(verifier.submit("192.0.2.1", done::countDown));
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        Thread.sleep(50);
+
+        // Then another can be submitted for the same address
+        assertTrue(verifier.submit("192.0.2.1", () -> { }));
+    }
+}
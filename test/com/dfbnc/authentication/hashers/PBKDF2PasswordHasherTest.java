@@ -0,0 +1,75 @@
+package com.dfbnc.authentication.hashers;
+
+import com.dfbnc.authentication.PasswordHasherManager;
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link com.dfbnc.authentication.hashers.PBKDF2PasswordHasher}.
+ */
+public class PBKDF2PasswordHasherTest {
+
+    /**
+     * Tests that a hash verifies the password it was made from, and nothing else.
+     */
+    @Test
+    public void testVerify() {
+        // Given a hashed password
+        final PBKDF2PasswordHasher hasher = new PBKDF2PasswordHasher(1000);
+        final String hash = hasher.hash("hunter2");
+
+        // Then only the same password verifies
+        assertTrue(hash.startsWith("pbkdf2-sha256$1000$"));
+        assertTrue(hasher.verify("hunter2", hash));
+        assertFalse(hasher.verify("hunter3", hash));
+        assertFalse(hasher.verify("hunter2", "pbkdf2-sha256$1000$broken"));
+    }
+
+    /**
+     * Tests that hashes of the same password use different salts.
+     */
+    @Test
+    public void testSalted() {
+        final PBKDF2PasswordHasher hasher = new PBKDF2PasswordHasher(1000);
+        assertNotEquals(hasher.hash("hunter2"), hasher.hash("hunter2"));
+    }
+
+    /**
+     * Tests that hashes made with fewer iterations need rehashing.
+     */
+    @Test
+    public void testNeedsRehash() {
+        // Given hashes made with different iterations
+        final String weak = new PBKDF2PasswordHasher(1000).hash("hunter2");
+        final PBKDF2PasswordHasher hasher = new PBKDF2PasswordHasher(2000);
+        final String strong = hasher.hash("hunter2");
+
+        // Then only the weaker one needs rehashing, but both still verify
+        assertTrue(hasher.needsRehash(weak));
+        assertFalse(hasher.needsRehash(strong));
+        assertTrue(hasher.verify("hunter2", weak));
+    }
+
+    /**
+     * Tests that the manager finds the hasher for a hash, and wants old md5
+     * hashes replaced.
+     */
+    @Test
+    public void testManager() {
+        // Given a manager with a PBKDF2 hasher
+        final PasswordHasherManager manager = new PasswordHasherManager();
+        final PBKDF2PasswordHasher hasher = new PBKDF2PasswordHasher(1000);
+        manager.addHasher(hasher);
+
+        // Then it is used for its own hashes, and md5 hashes need replacing
+        final String hash = manager.getDefaultHasher().hash("hunter2");
+        assertSame(hasher, manager.getHasherFor(hash));
+        assertFalse(manager.needsRehash(hash));
+        assertTrue(manager.needsRehash("0123456789abcdef0123456789abcdef"));
+        assertFalse(manager.setDefaultHasher("unknown"));
+    }
+}
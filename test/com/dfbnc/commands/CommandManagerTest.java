@@ -322,6 +322,50 @@ public class CommandManagerTest {
 		assertSame(command1, stCommands.get("stuff"));
 	}
 
+	/**
+	 * Tests that changes to nested sub-managers are seen by their parents after the parents have been used.
+	 */
+	@Test
+	public void testNestedSubManagerChangesSeenByParent() {
+		// Given a parent with a nested sub-manager that has been looked at
+		commandManager[0].addSubCommandManager(commandManager[1]);
+		commandManager[1].addSubCommandManager(commandManager[2]);
+		assertFalse(commandManager[0].getCommand("stuff").isPresent());
+
+		// When a command is added to the nested sub-manager
+		Command command = new FakeCommand(commandManager[2], "stuff");
+		commandManager[2].addCommand(command);
+
+		// Then the parent finds it
+		assertSame(command, commandManager[0].getCommand("stuff").get());
+
+		// And when an unrelated manager changes, it is still found
+		commandManager[3].addCommand(new FakeCommand2(commandManager[3], "stuff"));
+		assertSame(command, commandManager[0].getCommand("stuff").get());
+
+		// And when it is removed from the nested sub-manager, the parent no longer finds it
+		commandManager[2].delCommand(command);
+		assertFalse(commandManager[0].getCommand("stuff").isPresent());
+	}
+
+	/**
+	 * Tests that commands from a removed sub-manager are no longer found after the parent has been used.
+	 */
+	@Test
+	public void testRemovedSubManagerCommandsNotFound() {
+		// Given a parent with a sub-manager that has a command, that has been looked at
+		commandManager[0].addSubCommandManager(commandManager[1]);
+		commandManager[1].addCommand(new FakeCommand(commandManager[1], "stuff"));
+		assertTrue(commandManager[0].getCommand("stuff").isPresent());
+
+		// When the sub-manager is removed
+		commandManager[0].delSubCommandManager(commandManager[1]);
+
+		// Then the parent no longer finds the command
+		assertFalse(commandManager[0].getCommand("stuff").isPresent());
+		assertTrue(commandManager[0].getAllCommands(true).isEmpty());
+	}
+
 	/**
 	 * Tests that getMatchingCommand() correctly resolves a short command into a single match.
 	 */
@@ -463,6 +507,23 @@ public class CommandManagerTest {
 		assertSame(command, match.get());
 	}
 
+	/**
+	 * Tests that a hidden command can also be retrieved using its hidden name.
+	 */
+	@Test
+	public void testGetHiddenCommandByHiddenName() {
+		// Given a simple hidden command
+		Command command = new FakeCommand(commandManager[0], "*staff");
+		commandManager[0].addCommand(command);
+
+		// When we try to retrieve it including the hidden prefix
+		Optional<Command> match = commandManager[0].getCommand("*staff");
+
+		// Then it's returned
+		assertTrue(match.isPresent());
+		assertSame(command, match.get());
+	}
+
 	private static class FakeCommand extends Command {
 
 		private final String[] handles;
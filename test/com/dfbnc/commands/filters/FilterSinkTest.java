@@ -0,0 +1,157 @@
+package com.dfbnc.commands.filters;
+
+import com.dfbnc.commands.CommandOutputBuffer;
+import com.dfbnc.commands.CommandOutputSink;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for streaming command output through {@link CommandOutputFilter} sinks.
+ */
+public class FilterSinkTest {
+
+    /**
+     * Sink that collects everything it is given.
+     */
+    private static class CollectingSink implements CommandOutputSink {
+        private final List<String> lines = new ArrayList<>();
+        private boolean finished;
+
+        @Override
+        public boolean accept(final String line) {
+            lines.add(line);
+            return true;
+        }
+
+        @Override
+        public void finish() {
+            finished = true;
+        }
+    }
+
+    /**
+     * Tests that the head filter stops the output once it has enough lines.
+     */
+    @Test
+    public void testHeadStopsEarly() {
+        // Given output streamed through a head filter
+        final CollectingSink result = new CollectingSink();
+        final CommandOutputBuffer output = new CommandOutputBuffer(null);
+        output.stream(new HeadFilter().getSink(new String[]{"3"}, result));
+
+        // When more lines are produced than are wanted
+        int produced = 0;
+        while (!output.isFinished() && produced < 100) {
+            output.addBotMessage("line %d", produced++);
+        }
+        output.send();
+
+        // Then only the wanted lines are produced and passed on
+        assertEquals(3, produced);
+        assertEquals(Arrays.asList("line 0", "line 1", "line 2"), result.lines);
+        assertTrue(result.finished);
+    }
+
+    /**
+     * Tests that filters can be chained together.
+     */
+    @Test
+    public void testChainedFilters() {
+        // Given output streamed through include, tail and count filters
+        final CollectingSink result = new CollectingSink();
+        final CommandOutputSink count = new CountFilter().getSink(new String[0], result);
+        final CommandOutputSink tail = new TailFilter().getSink(new String[]{"4"}, count);
+        final CommandOutputBuffer output = new CommandOutputBuffer(null);
+        output.stream(new IncludeFilter().getSink(new String[]{"EVEN"}, tail));
+
+        // When lines are produced
+        for (int i = 0; i < 20; i++) {
+            output.addBotMessage("%s %d", i % 2 == 0 ? "even" : "odd", i);
+        }
+        output.send();
+
+        // Then the result only appears once the output is finished
+        assertEquals(Arrays.asList("4"), result.lines);
+    }
+
+    /**
+     * Tests that the tail filter keeps only the newest lines.
+     */
+    @Test
+    public void testTailKeepsNewest() {
+        // Given output streamed through a tail and an exclude filter
+        final CollectingSink result = new CollectingSink();
+        final CommandOutputSink tail = new TailFilter().getSink(new String[]{"2"}, result);
+        final CommandOutputBuffer output = new CommandOutputBuffer(null);
+        output.stream(new ExcludeFilter().getSink(new String[]{"skip"}, tail));
+
+        // When lines are produced
+        output.addBotMessage("one");
+        output.addBotMessage("two");
+        output.addBotMessage("skip me");
+        output.addBotMessage("three");
+        assertTrue(result.lines.isEmpty());
+        output.send();
+
+        // Then only the newest lines that weren't excluded are passed on
+        assertEquals(Arrays.asList("two", "three"), result.lines);
+    }
+
+    /**
+     * Tests that filters without their own sink still work.
+     */
+    @Test
+    public void testBufferedFilter() {
+        // Given output streamed through a filter that only implements runFilter
+        final CollectingSink result = new CollectingSink();
+        final CommandOutputFilter reverse = (params, output) -> {
+            final List<String> messages = output.getMessages();
+            java.util.Collections.reverse(messages);
+            output.setMessages(messages);
+        };
+        final CommandOutputBuffer output = new CommandOutputBuffer(null);
+        output.stream(reverse.getSink(new String[0], result));
+
+        // When lines are produced
+        output.addBotMessage("a");
+        output.addBotMessage("b");
+        output.send();
+
+        // Then the filter is run once the output is finished
+        assertEquals(Arrays.asList("b", "a"), result.lines);
+        assertTrue(result.finished);
+    }
+
+    /**
+     * Tests that invalid parameters are reported before any output.
+     */
+    @Test(expected = CommandOutputFilterException.class)
+    public void testInvalidParameters() {
+        new HeadFilter().getSink(new String[]{"ten"}, new CollectingSink());
+    }
+
+    /**
+     * Tests that a head of 0 doesn't want any output.
+     */
+    @Test
+    public void testHeadZero() {
+        // Given output streamed through a head filter wanting no lines
+        final CollectingSink result = new CollectingSink();
+        final CommandOutputBuffer output = new CommandOutputBuffer(null);
+        output.stream(new HeadFilter().getSink(new String[]{"0"}, result));
+
+        // When a line is produced
+        output.addBotMessage("test");
+
+        // Then it is not passed on
+        assertTrue(output.isFinished());
+        assertFalse(result.lines.contains("test"));
+    }
+}
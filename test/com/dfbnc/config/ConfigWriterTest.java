@@ -0,0 +1,98 @@
+package com.dfbnc.config;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Tests for {@link com.dfbnc.config.ConfigWriter}.
+ */
+public class ConfigWriterTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private ConfigWriter writer;
+
+    @Before
+    public void setUp() {
+        // Long enough that nothing is written unless we flush.
+        writer = new ConfigWriter(60000);
+        ConfigFileConfig.setWriter(writer);
+    }
+
+    @After
+    public void tearDown() {
+        ConfigFileConfig.setWriter(null);
+        writer.shutdown();
+    }
+
+    /**
+     * Tests that saving a config several times only writes it once.
+     */
+    @Test
+    public void testSavesCoalesced() throws Exception {
+        // Given a config that is changed and saved several times
+        final File file = folder.newFile("test.conf");
+        final Config config = new ConfigFileConfig(file);
+        for (int i = 0; i < 5; i++) {
+            config.setOption("user", "value", Integer.toString(i));
+            config.save();
+        }
+
+        // When the writer is flushed
+        assertEquals(1, writer.getQueueSize());
+        writer.flush();
+
+        // Then it is written once, with the last value
+        assertEquals(5, writer.getSaveRequests());
+        assertEquals(1, writer.getConfigsWritten());
+        assertEquals("4", new ConfigFileConfig(file).getOption("user", "value"));
+        assertFalse(new File(folder.getRoot(), "test.conf.tmp").exists());
+    }
+
+    /**
+     * Tests that nothing is written until the writer is flushed.
+     */
+    @Test
+    public void testWriteBehind() throws Exception {
+        // Given a config that has been changed and saved
+        final File file = folder.newFile("test.conf");
+        final Config config = new ConfigFileConfig(file);
+        config.setOption("user", "value", "test");
+        config.save();
+
+        // Then the file hasn't been written yet
+        assertEquals(0, file.length());
+
+        // Until the writer is shut down
+        writer.shutdown();
+        assertEquals("test", new ConfigFileConfig(file).getOption("user", "value"));
+    }
+
+    /**
+     * Tests that saves after shutdown are written straight away.
+     */
+    @Test
+    public void testSaveAfterShutdown() throws Exception {
+        // Given a writer that has been shut down
+        writer.shutdown();
+
+        // When a config is saved
+        final File file = folder.newFile("test.conf");
+        final Config config = new ConfigFileConfig(file);
+        config.setOption("user", "value", "test");
+        config.save();
+
+        // Then it is written straight away
+        assertEquals(0, writer.getQueueSize());
+        assertEquals("test", new ConfigFileConfig(file).getOption("user", "value"));
+    }
+}
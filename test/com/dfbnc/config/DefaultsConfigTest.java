@@ -0,0 +1,132 @@
+package com.dfbnc.config;
+
+import com.dmdirc.util.validators.ValidationResponse;
+import com.dmdirc.util.validators.Validator;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests for {@link com.dfbnc.config.DefaultsConfig}.
+ */
+public class DefaultsConfigTest {
+
+    /** Bundled defaults. */
+    private Config defaults;
+
+    /** Account level config. */
+    private Config account;
+
+    /** Sub-client level config. */
+    private Config subclient;
+
+    /**
+     * Create a config from the given lines.
+     *
+     * @param lines Lines of the config file
+     * @return Config containing the given lines.
+     */
+    private static Config makeConfig(final String... lines) throws Exception {
+        return new ConfigFileConfig(new ByteArrayInputStream(String.join("\n", lines).getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        defaults = makeConfig("user:", "  autoburst=true", "  nickname=default");
+        account = new DefaultsConfig(makeConfig("user:", "  nickname=account"), defaults);
+        subclient = new DefaultsConfig(makeConfig("general:", "  other=value"), account);
+    }
+
+    /**
+     * Tests that options come from the nearest layer that has them.
+     */
+    @Test
+    public void testLayering() {
+        assertEquals("account", subclient.getOption("user", "nickname"));
+        assertEquals("true", subclient.getOption("user", "autoburst"));
+        assertEquals("value", subclient.getOption("general", "other"));
+        assertEquals("default", defaults.getOption("user", "nickname"));
+    }
+
+    /**
+     * Tests that missing options are reported without throwing from findOption.
+     */
+    @Test
+    public void testMissingOption() {
+        assertNull(subclient.findOption("user", "missing"));
+        assertNull(subclient.findOption("missing", "missing"));
+    }
+
+    /**
+     * Tests that getOption still throws for missing options.
+     */
+    @Test(expected = NullPointerException.class)
+    public void testGetMissingOption() {
+        subclient.getOption("user", "missing");
+    }
+
+    /**
+     * Tests that changes to a layer are seen by the layers above it.
+     */
+    @Test
+    public void testChangesSeen() {
+        // Given options that have already been looked up
+        assertEquals("account", subclient.getOption("user", "nickname"));
+        assertNull(subclient.findOption("user", "missing"));
+
+        // When they are changed in the account config
+        account.setOption("user", "nickname", "changed");
+        account.setOption("user", "missing", "found");
+
+        // Then the sub-client sees the new values
+        assertEquals("changed", subclient.getOption("user", "nickname"));
+        assertEquals("found", subclient.getOption("user", "missing"));
+
+        // And when they are unset, it falls back to the defaults again
+        account.unsetOption("user", "nickname");
+        account.unsetOption("user", "missing");
+        assertEquals("default", subclient.getOption("user", "nickname"));
+        assertNull(subclient.findOption("user", "missing"));
+    }
+
+    /**
+     * Tests that listeners on a layer see the new value through the layers
+     * above it, even if they were registered before those layers existed.
+     */
+    @Test
+    public void testChangesSeenByEarlierListeners() throws Exception {
+        // Given a listener on the account that reads through a sub-client
+        // created after it was added
+        final List<String> seen = new ArrayList<>();
+        final Config[] child = new Config[1];
+        account.addChangeListener((config, domain, option) -> seen.add(child[0].getOption("user", "nickname")));
+        child[0] = new DefaultsConfig(makeConfig("general:", "  other=value"), account);
+        assertEquals("account", child[0].getOption("user", "nickname"));
+
+        // When the option is changed and then unset in the account config
+        account.setOption("user", "nickname", "changed");
+        account.unsetOption("user", "nickname");
+
+        // Then the listener saw the new value each time
+        assertEquals(Arrays.asList("changed", "default"), seen);
+    }
+
+    /**
+     * Tests that values failing a validator fall back to the next layer.
+     */
+    @Test
+    public void testValidator() {
+        final Validator<String> notAccount = value -> new ValidationResponse(value.equals("account") ? "Not allowed" : null);
+
+        assertEquals("default", subclient.getOption("user", "nickname", notAccount));
+        assertEquals("account", subclient.getOption("user", "nickname"));
+    }
+}
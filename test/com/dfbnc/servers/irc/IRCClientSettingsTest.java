@@ -0,0 +1,81 @@
+package com.dfbnc.servers.irc;
+
+import com.dfbnc.config.Config;
+import com.dfbnc.config.ConfigFileConfig;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link com.dfbnc.servers.irc.IRCClientSettings}.
+ */
+public class IRCClientSettingsTest {
+
+    /**
+     * Create settings from a config with the given lines.
+     *
+     * @param lines Lines of the config file
+     * @return Settings read from the config.
+     */
+    private static IRCClientSettings makeSettings(final String... lines) throws Exception {
+        final Config config = new ConfigFileConfig(new ByteArrayInputStream(String.join("\n", lines).getBytes(StandardCharsets.UTF_8)));
+        return new IRCClientSettings(config, String::toLowerCase);
+    }
+
+    /**
+     * Tests that backbuffer settings are read for channels and private messages.
+     */
+    @Test
+    public void testBackbuffer() throws Exception {
+        // Given a config with a private backbuffer timeout
+        final IRCClientSettings settings = makeSettings("user:", "  autoburst=true",
+                "server:", "  backbuffer=50", "  backbuffertimeout=60", "  privatebackbuffer=20",
+                "  privatebackbuffertimeout=120", "  privatebackbuffertimestamp=true");
+
+        // Then the limits are read, and timeouts are in milliseconds
+        assertTrue(settings.isAutoburst());
+        assertEquals(50, settings.getBackbufferLimit(true));
+        assertEquals(60000, settings.getBackbufferTimeout(true));
+        assertEquals(20, settings.getBackbufferLimit(false));
+        assertEquals(120000, settings.getBackbufferTimeout(false));
+        assertTrue(settings.isPrivateBackbufferTimestamp());
+    }
+
+    /**
+     * Tests that all the private backbuffer is sent if there is no timeout.
+     */
+    @Test
+    public void testPrivateBackbufferWithoutTimeout() throws Exception {
+        // Given a config without timeouts
+        final IRCClientSettings settings = makeSettings("user:", "  autoburst=false",
+                "server:", "  backbuffer=50", "  privatebackbuffer=20", "  privatebackbuffertimestamp=false");
+
+        // Then there is no limit on private backbuffer
+        assertFalse(settings.isAutoburst());
+        assertEquals(0, settings.getBackbufferTimeout(true));
+        assertEquals(Integer.MAX_VALUE, settings.getBackbufferLimit(false));
+        assertEquals(0, settings.getBackbufferTimeout(false));
+    }
+
+    /**
+     * Tests that channel whitelists and highlights are parsed.
+     */
+    @Test
+    public void testWhitelistAndHighlights() throws Exception {
+        // Given a config with a whitelist and highlights
+        final IRCClientSettings settings = makeSettings("user:", "  autoburst=true",
+                "server:", "  backbuffer=50", "  privatebackbuffer=20", "  privatebackbuffertimestamp=false",
+                "irc:", "  channelwhitelist=#DFBnc", "  highlight=dfbnc");
+
+        // Then only whitelisted channels are allowed, and highlights match
+        assertTrue(settings.isAllowedChannel("#dfbnc"));
+        assertFalse(settings.isAllowedChannel("#other"));
+        assertTrue(settings.getHighlightMatcher().matches("hello DFBnc"));
+        assertFalse(settings.getHighlightMatcher().matches("hello"));
+    }
+}
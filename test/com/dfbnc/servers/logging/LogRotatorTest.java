@@ -0,0 +1,153 @@
+package com.dfbnc.servers.logging;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link com.dfbnc.servers.logging.LogRotator}.
+ */
+public class LogRotatorTest {
+
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    /** Rotator being tested. */
+    private final LogRotator rotator = new LogRotator(null);
+
+    @After
+    public void tearDown() {
+        rotator.shutdown();
+    }
+
+    /**
+     * Create a log file containing the given lines.
+     *
+     * @param path Path of the file, relative to the logs directory
+     * @param lines Lines to write
+     * @return The new file.
+     */
+    private File createLog(final String path, final String... lines) throws IOException {
+        final File file = new File(folder.getRoot(), path);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), Arrays.asList(lines), StandardCharsets.UTF_8);
+        return file;
+    }
+
+    /**
+     * Read all lines from a gzip file.
+     *
+     * @param file File to read
+     * @return Lines in the file.
+     */
+    private List<String> readCompressed(final File file) throws IOException {
+        final List<String> result = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(file)), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                result.add(line);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Tests that logs from previous days are compressed and indexed, and that
+     * today's logs are left alone.
+     */
+    @Test
+    public void testRotatesFinishedDays() throws IOException {
+        // Given logs for yesterday and today
+        final File old = createLog("2017-01-01/#channel.log", "hello", "world");
+        final File current = createLog("2017-01-02/#channel.log", "today");
+
+        // When the logs are rotated
+        rotator.rotate(folder.getRoot(), 0, LocalDate.of(2017, 1, 2));
+
+        // Then only yesterday's log has been compressed, and can be found
+        assertFalse(old.exists());
+        assertTrue(current.exists());
+        final File compressed = new File(folder.getRoot(), "2017-01-01/#channel.log.gz");
+        assertEquals(Arrays.asList("hello", "world"), readCompressed(compressed));
+        assertEquals(Collections.singletonList(compressed), LogRotator.findArchivedLogs(folder.getRoot(), "#channel.log"));
+    }
+
+    /**
+     * Tests that lines added to a log after it was compressed are kept.
+     */
+    @Test
+    public void testCompressAppends() throws IOException {
+        // Given a log that has already been compressed
+        createLog("2017-01-01/#channel.log", "first");
+        rotator.rotate(folder.getRoot(), 0, LocalDate.of(2017, 1, 2));
+
+        // When more lines are added and it is compressed again
+        createLog("2017-01-01/#channel.log", "second");
+        rotator.rotate(folder.getRoot(), 0, LocalDate.of(2017, 1, 2));
+
+        // Then both lines are in the compressed log, which is indexed once
+        final File compressed = new File(folder.getRoot(), "2017-01-01/#channel.log.gz");
+        assertEquals(Arrays.asList("first", "second"), readCompressed(compressed));
+        assertEquals(Collections.singletonList(compressed), LogRotator.findArchivedLogs(folder.getRoot(), "#channel.log"));
+    }
+
+    /**
+     * Tests that logs older than the retention period are deleted.
+     */
+    @Test
+    public void testRetention() throws IOException {
+        // Given compressed logs from several days ago
+        createLog("2017-01-01/#channel.log", "old");
+        createLog("2017-01-05/#channel.log", "new");
+        rotator.rotate(folder.getRoot(), 0, LocalDate.of(2017, 1, 6));
+
+        // When the logs are rotated with a retention period of 3 days
+        rotator.rotate(folder.getRoot(), 3, LocalDate.of(2017, 1, 6));
+
+        // Then only the newer logs remain
+        assertFalse(new File(folder.getRoot(), "2017-01-01").exists());
+        assertEquals(Collections.singletonList(new File(folder.getRoot(), "2017-01-05/#channel.log.gz")),
+                LogRotator.findArchivedLogs(folder.getRoot(), "#channel.log"));
+    }
+
+    /**
+     * Tests that a sealed log left over from last time is compressed before
+     * any newer lines for the same day.
+     */
+    @Test
+    public void testCompressesLeftoverSealedLog() throws IOException {
+        // Given a compressed log, a sealed log that was not compressed, and
+        // lines that arrived after it was sealed
+        createLog("2017-01-01/#channel.log", "first");
+        rotator.rotate(folder.getRoot(), 0, LocalDate.of(2017, 1, 2));
+        final File sealed = createLog("2017-01-01/#channel.log.sealed", "second");
+        createLog("2017-01-01/#channel.log", "third");
+
+        // When the logs are rotated
+        rotator.rotate(folder.getRoot(), 0, LocalDate.of(2017, 1, 2));
+
+        // Then all of the lines are in the compressed log, in order
+        final File compressed = new File(folder.getRoot(), "2017-01-01/#channel.log.gz");
+        assertEquals(Arrays.asList("first", "second", "third"), readCompressed(compressed));
+        assertFalse(sealed.exists());
+        assertEquals(Collections.singletonList(compressed), LogRotator.findArchivedLogs(folder.getRoot(), "#channel.log"));
+    }
+}
@@ -0,0 +1,151 @@
+package com.dfbnc.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link com.dfbnc.util.CompactBackbuffer}.
+ */
+public class CompactBackbufferTest {
+
+    /**
+     * Get the messages in a backbuffer view.
+     *
+     * @param messages View to read
+     * @return List of message lines
+     */
+    private List<String> getLines(final Iterable<BackbufferMessage> messages) {
+        final List<String> result = new ArrayList<>();
+        messages.forEach(m -> result.add(m.getMessage()));
+        return result;
+    }
+
+    /**
+     * Tests that stored lines are rebuilt exactly.
+     */
+    @Test
+    public void testLinesAreRebuilt() {
+        // Given a backbuffer with a mixture of lines
+        final CompactBackbuffer buffer = new CompactBackbuffer(10);
+        buffer.add(1L, ":nick!ident@host PRIVMSG #channel :hello there");
+        buffer.add(2L, ":nick!ident@host PRIVMSG #channel :\u00e9t\u00e9 \001ACTION waves\001");
+        buffer.add(3L, ":server NOTICE #channel no-trailing-param");
+
+        // When the backbuffer is read back
+        final List<BackbufferMessage> messages = new ArrayList<>();
+        buffer.tail(10).forEach(messages::add);
+
+        // Then the original lines and times are returned
+        assertEquals(3, messages.size());
+        assertEquals(":nick!ident@host PRIVMSG #channel :hello there", messages.get(0).getMessage());
+        assertEquals(":nick!ident@host PRIVMSG #channel :\u00e9t\u00e9 \001ACTION waves\001", messages.get(1).getMessage());
+        assertEquals(":server NOTICE #channel no-trailing-param", messages.get(2).getMessage());
+        assertEquals(2L, messages.get(1).getTime());
+    }
+
+    /**
+     * Tests that the oldest lines are evicted when the buffer is full.
+     */
+    @Test
+    public void testEvictsOldest() {
+        // Given a backbuffer with a capacity of 2
+        final CompactBackbuffer buffer = new CompactBackbuffer(2);
+
+        // When more lines than that are added from different sources
+        buffer.add(1L, ":a PRIVMSG #c :1");
+        buffer.add(2L, ":b PRIVMSG #c :2");
+        buffer.add(3L, ":c PRIVMSG #c :3");
+        buffer.add(4L, ":a PRIVMSG #c :4");
+
+        // Then only the newest lines are kept
+        assertEquals(2, buffer.size());
+        assertEquals(Arrays.asList(":c PRIVMSG #c :3", ":a PRIVMSG #c :4"), getLines(buffer.tail(10)));
+    }
+
+    /**
+     * Tests that changing the capacity keeps the newest lines.
+     */
+    @Test
+    public void testSetCapacity() {
+        // Given a backbuffer that has wrapped around
+        final CompactBackbuffer buffer = new CompactBackbuffer(3);
+        for (int i = 1; i <= 5; i++) {
+            buffer.add(i, ":a PRIVMSG #c :" + i);
+        }
+
+        // When it is shrunk, then grown and refilled
+        buffer.setCapacity(1);
+        final List<String> shrunk = getLines(buffer.tail(10));
+        buffer.setCapacity(3);
+        buffer.add(6L, ":b PRIVMSG #c :6");
+
+        // Then the newest lines are kept each time
+        assertEquals(Arrays.asList(":a PRIVMSG #c :5"), shrunk);
+        assertEquals(Arrays.asList(":a PRIVMSG #c :5", ":b PRIVMSG #c :6"), getLines(buffer.tail(10)));
+    }
+
+    /**
+     * Tests that a zero capacity buffer never stores anything.
+     */
+    @Test
+    public void testZeroCapacity() {
+        // Given a backbuffer with no capacity
+        final CompactBackbuffer buffer = new CompactBackbuffer(0);
+
+        // When a line is added
+        buffer.add(1L, ":a PRIVMSG #c :1");
+
+        // Then it is not stored
+        assertTrue(buffer.isEmpty());
+        assertTrue(getLines(buffer.tail(10)).isEmpty());
+    }
+
+    /**
+     * Tests that views can start from a given time.
+     */
+    @Test
+    public void testTailSince() {
+        // Given a backbuffer that has wrapped around
+        final CompactBackbuffer buffer = new CompactBackbuffer(5);
+        for (int i = 1; i <= 8; i++) {
+            buffer.add(i * 10, ":a PRIVMSG #c :" + i);
+        }
+
+        // When views are requested from various times
+        final List<String> since = getLines(buffer.since(55));
+        final List<String> limited = getLines(buffer.tail(2, 55));
+        final List<String> future = getLines(buffer.since(100));
+        final List<String> all = getLines(buffer.since(0));
+
+        // Then only messages at or after that time are returned
+        assertEquals(Arrays.asList(":a PRIVMSG #c :6", ":a PRIVMSG #c :7", ":a PRIVMSG #c :8"), since);
+        assertEquals(Arrays.asList(":a PRIVMSG #c :7", ":a PRIVMSG #c :8"), limited);
+        assertTrue(future.isEmpty());
+        assertEquals(5, all.size());
+    }
+
+    /**
+     * Tests that messages added out of order are kept in time order.
+     */
+    @Test
+    public void testTimesAreOrdered() {
+        // Given a message is added with an earlier time than the one before
+        final CompactBackbuffer buffer = new CompactBackbuffer(5);
+        buffer.add(20L, ":a PRIVMSG #c :1");
+        buffer.add(10L, ":a PRIVMSG #c :2");
+
+        // When a view from the later time is requested
+        final List<BackbufferMessage> messages = new ArrayList<>();
+        buffer.since(20L).forEach(messages::add);
+
+        // Then both messages are returned with the later time
+        assertEquals(2, messages.size());
+        assertEquals(20L, messages.get(1).getTime());
+    }
+}
@@ -0,0 +1,89 @@
+package com.dfbnc.util;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link com.dfbnc.util.HighlightMatcher}.
+ */
+public class HighlightMatcherTest {
+
+    /**
+     * Tests that literal patterns match anywhere in a line, ignoring case.
+     */
+    @Test
+    public void testLiteralPatterns() {
+        // Given a matcher with some literal patterns
+        final HighlightMatcher matcher = new HighlightMatcher(Arrays.asList("Dataforce", "bnc"));
+
+        // When lines are checked
+        // Then lines containing any of the patterns match
+        assertTrue(matcher.matches("hello DATAFORCE!"));
+        assertTrue(matcher.matches("dfbnc is running"));
+        assertFalse(matcher.matches("nothing to see here"));
+    }
+
+    /**
+     * Tests that patterns sharing a prefix don't stop each other matching.
+     */
+    @Test
+    public void testOverlappingPatterns() {
+        // Given patterns where a partial match of one contains another
+        final HighlightMatcher matcher = new HighlightMatcher(Arrays.asList("abcd", "bce", "cf"));
+
+        // When lines are checked
+        // Then matches are found after falling back from a partial match
+        assertTrue(matcher.matches("xxabcexx"));
+        assertTrue(matcher.matches("abcf"));
+        assertFalse(matcher.matches("abcbc"));
+    }
+
+    /**
+     * Tests that regex patterns behave as they did before they were cached.
+     */
+    @Test
+    public void testRegexPatterns() {
+        // Given a matcher with regex patterns
+        final HighlightMatcher matcher = new HighlightMatcher(Arrays.asList("sh[a4]ne", "^start", "end$"));
+
+        // When lines are checked
+        // Then they match the same as ".*pattern.*" did
+        assertTrue(matcher.matches("hi SH4NE"));
+        assertTrue(matcher.matches("start of the line"));
+        assertTrue(matcher.matches("line at the end"));
+        assertFalse(matcher.matches("the end of the line"));
+    }
+
+    /**
+     * Tests that invalid patterns are ignored.
+     */
+    @Test
+    public void testInvalidPatterns() {
+        // Given a matcher with an invalid pattern and a valid one
+        final HighlightMatcher matcher = new HighlightMatcher(Arrays.asList("(broken", "works"));
+
+        // When lines are checked
+        // Then the invalid pattern is ignored
+        assertFalse(matcher.matches("(broken"));
+        assertTrue(matcher.matches("this works"));
+    }
+
+    /**
+     * Tests that an empty list of patterns never matches.
+     */
+    @Test
+    public void testEmpty() {
+        // Given a matcher with no patterns
+        final HighlightMatcher matcher = new HighlightMatcher(Collections.<String>emptyList());
+
+        // When a line is checked
+        // Then it does not match
+        assertTrue(matcher.isEmpty());
+        assertFalse(matcher.matches("anything"));
+    }
+}
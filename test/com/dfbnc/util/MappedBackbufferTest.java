@@ -0,0 +1,205 @@
+package com.dfbnc.util;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Tests for {@link com.dfbnc.util.MappedBackbuffer}.
+ */
+public class MappedBackbufferTest {
+
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Get the messages in a backbuffer view.
+     *
+     * @param messages View to read
+     * @return List of message lines
+     */
+    private List<String> getLines(final Iterable<BackbufferMessage> messages) {
+        final List<String> result = new ArrayList<>();
+        messages.forEach(m -> result.add(m.getMessage()));
+        return result;
+    }
+
+    /**
+     * Tests that the backbuffer is kept when it is reopened.
+     */
+    @Test
+    public void testSurvivesReopen() throws IOException {
+        // Given a backbuffer with some messages that has been closed
+        final File file = new File(folder.getRoot(), "backbuffer/#channel");
+        final MappedBackbuffer buffer = new MappedBackbuffer(file, 10);
+        buffer.add(1L, ":a PRIVMSG #channel :hello");
+        buffer.add(2L, ":b PRIVMSG #channel :world");
+        buffer.close();
+
+        // When it is reopened with a smaller capacity
+        final MappedBackbuffer reopened = new MappedBackbuffer(file, 1);
+
+        // Then the newest messages are still available
+        final List<BackbufferMessage> messages = new ArrayList<>();
+        reopened.tail(10).forEach(messages::add);
+        assertEquals(1, messages.size());
+        assertEquals(":b PRIVMSG #channel :world", messages.get(0).getMessage());
+        assertEquals(2L, messages.get(0).getTime());
+        reopened.close();
+    }
+
+    /**
+     * Tests that deleting a backbuffer removes its files.
+     */
+    @Test
+    public void testDelete() throws IOException {
+        // Given a backbuffer with some messages
+        final File file = new File(folder.getRoot(), "#channel");
+        final MappedBackbuffer buffer = new MappedBackbuffer(file, 10);
+        buffer.add(1L, ":a PRIVMSG #channel :hello");
+
+        // When it is deleted
+        buffer.delete();
+
+        // Then the files are gone, and reopening it gives an empty backbuffer
+        assertEquals(0, folder.getRoot().list().length);
+        final MappedBackbuffer reopened = new MappedBackbuffer(file, 10);
+        assertEquals(0, reopened.size());
+        reopened.delete();
+    }
+
+    /**
+     * Tests that evicted messages are removed when the files are compacted.
+     */
+    @Test
+    public void testCompaction() throws IOException {
+        // Given a small backbuffer
+        final File file = new File(folder.getRoot(), "#channel");
+        final MappedBackbuffer buffer = new MappedBackbuffer(file, 3);
+
+        // When enough messages are added to compact the files several times
+        for (int i = 0; i < 5000; i++) {
+            buffer.add(i, ":a PRIVMSG #channel :" + i);
+        }
+
+        // Then only the newest messages remain, on disk as well as in memory
+        assertEquals(3, buffer.size());
+        assertEquals(Arrays.asList(":a PRIVMSG #channel :4997", ":a PRIVMSG #channel :4998", ":a PRIVMSG #channel :4999"), getLines(buffer.tail(10)));
+        buffer.close();
+        assertEquals(getLines(buffer.tail(10)), getLines(new MappedBackbuffer(file, 3).tail(10)));
+    }
+
+    /**
+     * Tests that a view keeps working when the files are compacted under it.
+     */
+    @Test
+    public void testViewDuringCompaction() throws IOException {
+        // Given a full backbuffer
+        final MappedBackbuffer buffer = new MappedBackbuffer(new File(folder.getRoot(), "test"), 2);
+        buffer.add(1L, "1");
+        buffer.add(2L, "2");
+
+        // When lots of messages are added while a view is being iterated
+        final List<String> result = new ArrayList<>();
+        for (BackbufferMessage message : buffer.tail(2)) {
+            result.add(message.getMessage());
+            for (int i = 0; i < 2000; i++) {
+                buffer.add(3L, "new");
+            }
+        }
+
+        // Then evicted messages are skipped and new messages are not returned
+        assertEquals(Arrays.asList("1"), result);
+        buffer.close();
+    }
+
+    /**
+     * Tests that a segment and index from different files are not used together.
+     */
+    @Test
+    public void testMismatchedFiles() throws IOException {
+        // Given two backbuffers with different messages
+        final File file = new File(folder.getRoot(), "#channel");
+        final File other = new File(folder.getRoot(), "#other");
+        final MappedBackbuffer buffer = new MappedBackbuffer(file, 10);
+        buffer.add(1L, ":a PRIVMSG #channel :hello");
+        buffer.close();
+        final MappedBackbuffer otherBuffer = new MappedBackbuffer(other, 10);
+        otherBuffer.add(1L, "1");
+        otherBuffer.add(2L, "2");
+        otherBuffer.close();
+
+        // When the segment of one is paired with the index of the other
+        Files.copy(new File(other.getPath() + ".seg").toPath(), new File(file.getPath() + ".seg").toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        // Then the files are discarded when reopened
+        final MappedBackbuffer reopened = new MappedBackbuffer(file, 10);
+        assertEquals(0, reopened.size());
+        reopened.add(3L, "3");
+        assertEquals(Arrays.asList("3"), getLines(reopened.tail(10)));
+        reopened.close();
+    }
+
+    /**
+     * Tests that a compaction that stopped after replacing the segment is
+     * finished when the backbuffer is reopened.
+     */
+    @Test
+    public void testUnfinishedCompaction() throws IOException {
+        // Given a backbuffer whose segment has been replaced, but whose new
+        // index is still waiting to be moved into place
+        final File file = new File(folder.getRoot(), "#channel");
+        final MappedBackbuffer buffer = new MappedBackbuffer(file, 10);
+        buffer.add(1L, ":a PRIVMSG #channel :hello");
+        buffer.close();
+        final File index = new File(file.getPath() + ".idx");
+        final File newIndex = new File(file.getPath() + ".idx.tmp");
+        Files.move(index.toPath(), newIndex.toPath());
+        new MappedBackbuffer(new File(folder.getRoot(), "#other"), 10).close();
+        Files.copy(new File(folder.getRoot(), "#other.idx").toPath(), index.toPath());
+
+        // When it is reopened
+        final MappedBackbuffer reopened = new MappedBackbuffer(file, 10);
+
+        // Then the new index is used
+        assertEquals(Arrays.asList(":a PRIVMSG #channel :hello"), getLines(reopened.tail(10)));
+        assertFalse(newIndex.exists());
+        reopened.close();
+    }
+
+    /**
+     * Tests that a compaction that stopped before replacing either file is
+     * discarded when the backbuffer is reopened.
+     */
+    @Test
+    public void testAbandonedCompaction() throws IOException {
+        // Given a backbuffer with part-written new files alongside it
+        final File file = new File(folder.getRoot(), "#channel");
+        final MappedBackbuffer buffer = new MappedBackbuffer(file, 10);
+        buffer.add(1L, ":a PRIVMSG #channel :hello");
+        buffer.close();
+        final File newSegment = new File(file.getPath() + ".seg.tmp");
+        final File newIndex = new File(file.getPath() + ".idx.tmp");
+        Files.write(newSegment.toPath(), new byte[]{1, 2, 3});
+        Files.write(newIndex.toPath(), new byte[]{4, 5, 6});
+
+        // When it is reopened
+        final MappedBackbuffer reopened = new MappedBackbuffer(file, 10);
+
+        // Then the old files are used, and the new ones are removed
+        assertEquals(Arrays.asList(":a PRIVMSG #channel :hello"), getLines(reopened.tail(10)));
+        assertFalse(newSegment.exists());
+        assertFalse(newIndex.exists());
+        reopened.close();
+    }
+}